@@ -0,0 +1,73 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm;
+
+import be.nabu.eai.repository.api.ResourceEntry;
+import be.nabu.libs.services.vm.Pipeline;
+import be.nabu.libs.services.vm.SimpleVMServiceDefinition;
+import be.nabu.libs.services.vm.step.Sequence;
+
+/**
+ * A service definition that only parses its steps when they are first requested.
+ * The pipeline is loaded up front as it determines the interface of the service.
+ */
+public class LazyVMServiceDefinition extends SimpleVMServiceDefinition {
+
+	private ResourceEntry entry;
+	private volatile boolean loaded;
+	
+	public LazyVMServiceDefinition(Pipeline pipeline, ResourceEntry entry) {
+		super(pipeline);
+		this.entry = entry;
+	}
+
+	@Override
+	public Sequence getRoot() {
+		if (!loaded) {
+			synchronized(this) {
+				if (!loaded) {
+					try {
+						super.setRoot(VMServiceManager.loadSequence(entry));
+					}
+					catch (Exception e) {
+						throw new RuntimeException("Could not load the steps of service: " + entry.getId(), e);
+					}
+					loaded = true;
+				}
+			}
+		}
+		return super.getRoot();
+	}
+
+	@Override
+	public void setRoot(Sequence root) {
+		synchronized(this) {
+			super.setRoot(root);
+			loaded = true;
+		}
+	}
+	
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	public ResourceEntry getEntry() {
+		return entry;
+	}
+}
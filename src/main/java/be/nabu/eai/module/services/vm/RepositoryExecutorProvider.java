@@ -19,8 +19,15 @@ package be.nabu.eai.module.services.vm;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 
 import org.slf4j.LoggerFactory;
@@ -28,7 +35,27 @@ import org.slf4j.Logger;
 
 import be.nabu.eai.developer.managers.base.BaseConfigurationGUIManager;
 import be.nabu.eai.developer.managers.util.SimpleProperty;
+import be.nabu.eai.module.services.vm.api.AsyncServiceExecutor;
+import be.nabu.eai.module.services.vm.api.BatchServiceExecutor;
 import be.nabu.eai.module.services.vm.api.ServiceExecutor;
+import be.nabu.eai.module.services.vm.executor.AsyncExecutorServiceRunner;
+import be.nabu.eai.module.services.vm.executor.BatchingServiceRunner;
+import be.nabu.eai.module.services.vm.executor.BoundedServiceRunner;
+import be.nabu.eai.module.services.vm.executor.CircuitBreakerServiceRunner;
+import be.nabu.eai.module.services.vm.executor.ConsistentHashRing;
+import be.nabu.eai.module.services.vm.executor.ConsistentHashServiceRunner;
+import be.nabu.eai.module.services.vm.executor.DirectServiceRunner;
+import be.nabu.eai.module.services.vm.executor.ExecutorMetrics;
+import be.nabu.eai.module.services.vm.executor.ExecutorProperties;
+import be.nabu.eai.module.services.vm.executor.ExecutorTargetRegistry;
+import be.nabu.eai.module.services.vm.executor.LeastLoadedServiceRunner;
+import be.nabu.eai.module.services.vm.executor.LocalFirstServiceRunner;
+import be.nabu.eai.module.services.vm.executor.MeteredServiceRunner;
+import be.nabu.eai.module.services.vm.executor.PartitionServiceRunner;
+import be.nabu.eai.module.services.vm.executor.PriorityServiceRunner;
+import be.nabu.eai.module.services.vm.executor.PriorityServiceRunner.Priority;
+import be.nabu.eai.module.services.vm.executor.RetryServiceRunner;
+import be.nabu.eai.module.services.vm.executor.VirtualThreadServiceRunner;
 import be.nabu.eai.repository.EAIRepositoryUtils;
 import be.nabu.eai.repository.api.Repository;
 import be.nabu.libs.artifacts.api.Artifact;
@@ -51,7 +78,11 @@ import be.nabu.libs.types.api.Element;
 public class RepositoryExecutorProvider implements ExecutorProvider {
 
 	private Logger logger = LoggerFactory.getLogger(getClass());
-	private static List<String> targets;
+	private static Map<String, ResolvedTarget> resolvedTargets = new ConcurrentHashMap<String, ResolvedTarget>();
+	// the amount of runners that are kept per repository (0 disables the cache) and how long a runner for a repository artifact is reused (in milliseconds)
+	private static final int RUNNER_CACHE_SIZE = Integer.parseInt(System.getProperty("vm.executor.runners.size", "1024"));
+	private static final long RUNNER_CACHE_TTL = Long.parseLong(System.getProperty("vm.executor.runners.ttl", "60000"));
+	private static Map<Repository, Map<List<Object>, CachedRunner>> runners = Collections.synchronizedMap(new WeakHashMap<Repository, Map<List<Object>, CachedRunner>>());
 	private Repository repository;
 	
 	public RepositoryExecutorProvider(Repository repository) {
@@ -60,22 +91,128 @@ public class RepositoryExecutorProvider implements ExecutorProvider {
 	
 	@Override
 	public boolean isBatch(String target) {
+		target = ExecutorProperties.getTarget(target);
 		return target != null && (target.equals("$all") || target.endsWith(":$all"));
 	}
 	
 	@Override
 	public boolean isAsynchronous(String target) {
+		target = ExecutorProperties.getTarget(target);
 		return target != null && (target.equals("$all") || target.endsWith(":$all") || target.equals("$any") || target.endsWith(":$any"));
 	}
 	
 	@Override
-	public ServiceRunner getRunner(final String target, Map<String, ?> properties) {
+	public ServiceRunner getRunner(String target, Map<String, ?> properties) {
+		if (RUNNER_CACHE_SIZE <= 0) {
+			return newRunner(target, properties);
+		}
+		// the properties are evaluated per invoke, invokes from the same call site usually evaluate to the same values and can share the runner
+		List<Object> key = Arrays.<Object>asList(target, properties == null || properties.isEmpty() ? null : new HashMap<String, Object>(properties));
+		Map<List<Object>, CachedRunner> cache = getRunnerCache(repository);
+		CachedRunner cached;
+		synchronized(cache) {
+			cached = cache.get(key);
+		}
+		if (cached == null || cached.isExpired()) {
+			String dependency = getDependency(target);
+			// the routing targets choose between the runners in the repository, they have to pick up new runners
+			String routing = ExecutorProperties.getTarget(target);
+			boolean expiring = dependency != null || "$least-loaded".equals(routing) || "$hash".equals(routing);
+			cached = new CachedRunner(dependency, expiring, newRunner(target, properties));
+			synchronized(cache) {
+				cache.put(key, cached);
+			}
+		}
+		return cached.getRunner();
+	}
+	
+	// the artifact was (re)loaded, runners that were built for it are discarded
+	public static void invalidate(String id) {
+		synchronized(runners) {
+			for (Map<List<Object>, CachedRunner> cache : runners.values()) {
+				synchronized(cache) {
+					Iterator<CachedRunner> iterator = cache.values().iterator();
+					while (iterator.hasNext()) {
+						if (id.equals(iterator.next().getDependency())) {
+							iterator.remove();
+						}
+					}
+				}
+			}
+		}
+		Iterator<ResolvedTarget> iterator = resolvedTargets.values().iterator();
+		while (iterator.hasNext()) {
+			if (id.equals(iterator.next().getId())) {
+				iterator.remove();
+			}
+		}
+		// a new configuration of the target can raise its limit
+		BoundedServiceRunner.reset(id);
+	}
+	
+	private static Map<List<Object>, CachedRunner> getRunnerCache(Repository repository) {
+		synchronized(runners) {
+			Map<List<Object>, CachedRunner> cache = runners.get(repository);
+			if (cache == null) {
+				// least recently used, properties that differ for every invoke (e.g. a hash key) would otherwise keep growing the cache
+				cache = new LinkedHashMap<List<Object>, CachedRunner>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedRunner> eldest) {
+						return size() > RUNNER_CACHE_SIZE;
+					}
+				};
+				runners.put(repository, cache);
+			}
+			return cache;
+		}
+	}
+	
+	// the artifact a target runs on, null for the built-in targets
+	private static String getDependency(String target) {
+		target = ExecutorProperties.getTarget(target);
+		return target == null || target.startsWith("$") ? null : target.split(":")[0];
+	}
+	
+	private ServiceRunner newRunner(String target, Map<String, ?> properties) {
+		// properties can be passed along in the target, e.g. "$any?priority=low"
+		if (target != null && target.indexOf('?') >= 0) {
+			properties = ExecutorProperties.withQuery(target, properties);
+			target = ExecutorProperties.getTarget(target);
+		}
+		ServiceRunner runner = getTargetRunner(target, properties);
+		// limit the amount of work in flight for the target
+		if (target != null && BoundedServiceRunner.isBounded(properties)) {
+			runner = new BoundedServiceRunner(target, runner, properties);
+		}
+		// stop sending work to a target that keeps failing, this wraps the limit so invokes that are not let through don't take up a slot
+		if (target != null && CircuitBreakerServiceRunner.isEnabled(properties)) {
+			runner = new CircuitBreakerServiceRunner(target, runner, repository.getServiceRunner(), properties);
+		}
+		// retry invokes that fail to run, each attempt passes through the circuit breaker
+		// an invoke on all servers may already have run on some of them, it is only retried if the exceptions are explicitly configured
+		if (target != null && RetryServiceRunner.isEnabled(properties) && (!isBatch(target) || RetryServiceRunner.isExplicit(properties))) {
+			runner = new RetryServiceRunner(target, runner, properties);
+		}
+		// low priority work waits for one of a limited amount of slots and holds it until its result is available so it doesn't crowd out interactive work
+		// it wraps the retries and the circuit breaker so a slot is held across attempts and released when the deadline passes, high and normal priority are not throttled
+		if (PriorityServiceRunner.getPriority(properties) == Priority.LOW) {
+			runner = new PriorityServiceRunner(runner, Priority.LOW);
+		}
+		// outermost so rejections by the limit or the circuit breaker are visible as well, only if the metrics are enabled as they add overhead to every invoke
+		if (ExecutorMetrics.isEnabled()) {
+			runner = new MeteredServiceRunner(target == null ? "$local" : target, runner);
+		}
+		return runner;
+	}
+	
+	private ServiceRunner getTargetRunner(final String target, Map<String, ?> properties) {
 		if (target == null) {
 			return repository.getServiceRunner();
 		}
 		else if (target.equals("$any") || target.endsWith(":$any")) {
 			if (repository.getServiceRunner() instanceof ClusteredServiceRunner) {
-				return new ServiceRunner() {
+				ServiceRunner runner = new ServiceRunner() {
 					@Override
 					public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
 						try {
@@ -88,11 +225,38 @@ public class RepositoryExecutorProvider implements ExecutorProvider {
 						return null;
 					}
 				};
+				// we only know that this server is part of its own cluster, so only a plain $any can run locally
+				if (target.equals("$any") && LocalFirstServiceRunner.isEnabled(properties)) {
+					runner = new LocalFirstServiceRunner(runner, repository.getServiceRunner(), properties);
+				}
+				return runner;
 			}
 			else {
 				throw new IllegalStateException("The repository service runner is not a clustered one");
 			}
 		}
+		// the local runner, mostly useful as a candidate for other targets
+		else if (target.equals("$self")) {
+			return repository.getServiceRunner();
+		}
+		else if (target.equals("$least-loaded")) {
+			return new LeastLoadedServiceRunner(this, getCandidates(properties, LeastLoadedServiceRunner.PROPERTY_CANDIDATES, target, true));
+		}
+		// keep invokes with the same key on the same target
+		// "$self" is a different server depending on where the invoke starts, so it is not a default candidate: the ring only gives the same answer on every server if it consists of shared runner artifacts
+		else if (target.equals("$hash")) {
+			ConsistentHashRing ring = ConsistentHashRing.getRing(getCandidates(properties, ConsistentHashServiceRunner.PROPERTY_CANDIDATES, target, false));
+			return new ConsistentHashServiceRunner(this, ring, ExecutorProperties.getString(properties, ConsistentHashServiceRunner.PROPERTY_KEY, null));
+		}
+		// run on a virtual thread per invoke
+		else if (target.equals("$virtual")) {
+			return new VirtualThreadServiceRunner(new DirectServiceRunner(repository.getServiceRunner()), properties);
+		}
+		// split a list in the input over parallel runs and merge the outputs, this runs on the local server unless a runner is given
+		else if (target.equals("$partition") || target.endsWith(":$partition")) {
+			ServiceRunner runner = target.equals("$partition") ? repository.getServiceRunner() : getRunner(target.substring(0, target.length() - ":$partition".length()), null);
+			return new PartitionServiceRunner(runner, properties);
+		}
 		else if (target.equals("$all") || target.endsWith(":$all")) {
 			if (repository.getServiceRunner() instanceof ClusteredServiceRunner) {
 				return new ServiceRunner() {
@@ -159,34 +323,168 @@ public class RepositoryExecutorProvider implements ExecutorProvider {
 //			}
 //		}
 		else {
-			String[] split = target.split(":");
-			Artifact resolve = repository.resolve(split[0]);
-			// we have a ServiceRunner
-			if (resolve instanceof DefinedService) {
-				return new ServiceRunner() {
-					@Override
-					public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
-						DefinedService runner = (DefinedService) resolve;
-						ComplexContent runnerInput = runner.getServiceInterface().getInputDefinition().newInstance();
-						runnerInput.set("input",  input);
-						runnerInput.set("serviceId", ((DefinedService) service).getId());
-						if (properties != null) {
-							for (String key : properties.keySet()) {
-								runnerInput.set(key, properties.get(key));
-							}
-						}
-						return repository.getServiceRunner().run(runner, context, runnerInput, observers);
-					}
-				};
+			ResolvedTarget resolved = resolve(target);
+			// we have a service that implements the executor interface
+			if (resolved.getArtifact() instanceof DefinedService) {
+				// invokes to a batch executor are combined
+				if (resolved.isBatch()) {
+					return new BatchingServiceRunner(repository, (DefinedService) resolved.getArtifact(), properties);
+				}
+				// asynchronous executors report their result later on
+				else if (resolved.isAsync()) {
+					return new AsyncExecutorServiceRunner(repository, (DefinedService) resolved.getArtifact(), properties);
+				}
+				// the properties are evaluated per invoke so we can only reuse the runner if there are none
+				return properties == null || properties.isEmpty() ? resolved.getRunner() : new ExecutorServiceRunner(repository, (DefinedService) resolved.getArtifact(), properties);
 			}
-			else if (resolve instanceof ServiceRunner) {
-				return (ServiceRunner) resolve;
+			// we have a ServiceRunner
+			else if (resolved.getArtifact() instanceof ServiceRunner) {
+				return (ServiceRunner) resolved.getArtifact();
 			}
 			else {
 				throw new RuntimeException("Illegal target: " + target);
 			}
 		}
 	}
+	
+	private static DefinedServiceInterface getBatchInterface() {
+		return DefinedServiceInterfaceResolverFactory.getInstance().getResolver().resolve(BatchServiceExecutor.class.getName() + ".execute");
+	}
+	
+	private static DefinedServiceInterface getAsyncInterface() {
+		return DefinedServiceInterfaceResolverFactory.getInstance().getResolver().resolve(AsyncServiceExecutor.class.getName() + ".submit");
+	}
+	
+	// the targets to choose from for routing targets, by default we choose between the runners in the repository and (if requested) the local server
+	// this is only called when the runner for a call site is built, the runner (and the candidates) are then cached
+	private List<String> getCandidates(Map<String, ?> properties, String property, String target, boolean includeSelf) {
+		String candidates = ExecutorProperties.getString(properties, property, null);
+		List<String> list = new ArrayList<String>();
+		if (candidates != null) {
+			for (String candidate : candidates.split("[\\s]*,[\\s]*")) {
+				if (!candidate.isEmpty() && !candidate.equals(target)) {
+					list.add(candidate);
+				}
+			}
+		}
+		else {
+			if (includeSelf) {
+				list.add("$self");
+			}
+			// the registry keeps the runners up to date, scanning the repository is too slow
+			list.addAll(ExecutorTargetRegistry.getRegistry(repository).getRunners());
+		}
+		return list;
+	}
+	
+	// the resolved targets are cached until the artifact is reloaded (see invalidate) or, for artifacts that are not loaded by this module, until the cache expires
+	private ResolvedTarget resolve(String target) {
+		ResolvedTarget resolved = resolvedTargets.get(target);
+		if (resolved == null || resolved.getRepository() != repository || resolved.isExpired()) {
+			String id = target.split(":")[0];
+			Artifact artifact = repository.resolve(id);
+			resolved = new ResolvedTarget(repository, id, artifact);
+			if (artifact != null) {
+				resolvedTargets.put(target, resolved);
+			}
+			else {
+				resolvedTargets.remove(target);
+			}
+		}
+		return resolved;
+	}
+	
+	private static class CachedRunner {
+		private String dependency;
+		private boolean expiring;
+		private ServiceRunner runner;
+		private long created = System.currentTimeMillis();
+		
+		public CachedRunner(String dependency, boolean expiring, ServiceRunner runner) {
+			this.dependency = dependency;
+			this.expiring = expiring;
+			this.runner = runner;
+		}
+		public String getDependency() {
+			return dependency;
+		}
+		public ServiceRunner getRunner() {
+			return runner;
+		}
+		// most built-in targets never change, the others are rebuilt once in a while in case their artifact was reloaded without passing through this module
+		public boolean isExpired() {
+			return expiring && System.currentTimeMillis() - created > RUNNER_CACHE_TTL;
+		}
+	}
+	
+	private static class ResolvedTarget {
+		private Repository repository;
+		private String id;
+		private Artifact artifact;
+		private ServiceRunner runner;
+		private boolean batch, async;
+		private long created = System.currentTimeMillis();
+		
+		public ResolvedTarget(Repository repository, String id, Artifact artifact) {
+			this.repository = repository;
+			this.id = id;
+			this.artifact = artifact;
+			if (artifact instanceof DefinedService) {
+				this.batch = POJOUtils.isImplementation((DefinedService) artifact, getBatchInterface());
+				this.async = POJOUtils.isImplementation((DefinedService) artifact, getAsyncInterface());
+				this.runner = new ExecutorServiceRunner(repository, (DefinedService) artifact, null);
+			}
+		}
+		public boolean isBatch() {
+			return batch;
+		}
+		public boolean isAsync() {
+			return async;
+		}
+		public Repository getRepository() {
+			return repository;
+		}
+		public String getId() {
+			return id;
+		}
+		public Artifact getArtifact() {
+			return artifact;
+		}
+		public ServiceRunner getRunner() {
+			return runner;
+		}
+		public boolean isExpired() {
+			return System.currentTimeMillis() - created > RUNNER_CACHE_TTL;
+		}
+	}
+	
+	// runs a service through a service that implements the executor interface
+	private static class ExecutorServiceRunner implements ServiceRunner {
+		private Repository repository;
+		private DefinedService executor;
+		private Map<String, ?> properties;
+		
+		public ExecutorServiceRunner(Repository repository, DefinedService executor, Map<String, ?> properties) {
+			this.repository = repository;
+			this.executor = executor;
+			this.properties = properties;
+		}
+		
+		@Override
+		public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+			ComplexContent runnerInput = executor.getServiceInterface().getInputDefinition().newInstance();
+			runnerInput.set("input",  input);
+			runnerInput.set("serviceId", ((DefinedService) service).getId());
+			if (properties != null) {
+				for (String key : properties.keySet()) {
+					if (!ExecutorProperties.isControl(key)) {
+						runnerInput.set(key, properties.get(key));
+					}
+				}
+			}
+			return repository.getServiceRunner().run(executor, context, runnerInput, observers);
+		}
+	}
 
 	@Override
 	public List<String> getTargets() {
@@ -196,34 +494,60 @@ public class RepositoryExecutorProvider implements ExecutorProvider {
 		// in the beginning self == any, in the future other logic can be used to select a server, for example "heavy" processes could be delegated to servers that are idling
 		targets.add("$any");
 		targets.add("$all");
-		// at some point we should choose a different server based on load etc
+		targets.add("$partition");
+		targets.add("$least-loaded");
+		targets.add("$hash");
+		targets.add("$virtual");
+		// $least-loaded chooses a runner based on the load this server observes, choosing a peer based on the load it reports itself requires support from the cluster
 //		targets.add("$other");
 		// TODO: in the future we could add other clusters than your own with the same toggles, e.g.:
 		// cluster1:$any
 		// cluster1:$all
 		// at that point we need to add the referenced clusters to the "references" so it can get picked up by the deployer etc
-		for (ServiceRunner runner : repository.getArtifacts(ServiceRunner.class)) {
-			if (runner instanceof Artifact) {
-				targets.add(((Artifact) runner).getId() + ":$self");
-				targets.add(((Artifact) runner).getId() + ":$any");
-//							targets.add(((Artifact) runner).getId() + ":$all");
-			}
-		}
-		DefinedServiceInterface iface = DefinedServiceInterfaceResolverFactory.getInstance().getResolver().resolve(ServiceExecutor.class.getName() + ".execute");		
-		for (DefinedService service : repository.getArtifacts(DefinedService.class)) {
-			if (POJOUtils.isImplementation(service, iface)) {
-				targets.add(service.getId());
-			}
+		// the runners and executors are kept up to date by the registry, scanning the repository for them on every call is too slow
+		ExecutorTargetRegistry registry = ExecutorTargetRegistry.getRegistry(repository);
+		for (String runner : registry.getRunners()) {
+			targets.add(runner + ":$self");
+			targets.add(runner + ":$any");
+//			targets.add(runner + ":$all");
 		}
+		targets.addAll(registry.getExecutors());
 		return targets;
 	}
 
 	@Override
 	public List<Property<?>> getTargetProperties(String target) {
+		target = ExecutorProperties.getTarget(target);
 		List<Property<?>> properties = new ArrayList<Property<?>>();
+		if (target != null && (target.equals("$partition") || target.endsWith(":$partition"))) {
+			properties.add(new SimpleProperty<String>(PartitionServiceRunner.PROPERTY_FIELD, String.class, false));
+			properties.add(new SimpleProperty<Integer>(PartitionServiceRunner.PROPERTY_PARTITIONS, Integer.class, false));
+		}
+		else if ("$any".equals(target)) {
+			properties.add(new SimpleProperty<Integer>(LocalFirstServiceRunner.PROPERTY_LOCAL_FIRST, Integer.class, false));
+		}
+		else if ("$least-loaded".equals(target)) {
+			properties.add(new SimpleProperty<String>(LeastLoadedServiceRunner.PROPERTY_CANDIDATES, String.class, false));
+		}
+		else if ("$virtual".equals(target)) {
+			properties.add(new SimpleProperty<Integer>(VirtualThreadServiceRunner.PROPERTY_CONCURRENCY, Integer.class, false));
+		}
+		else if ("$hash".equals(target)) {
+			properties.add(new SimpleProperty<String>(ConsistentHashServiceRunner.PROPERTY_KEY, String.class, true));
+			properties.add(new SimpleProperty<String>(ConsistentHashServiceRunner.PROPERTY_CANDIDATES, String.class, false));
+		}
 		Artifact resolve = repository.resolve(target);
 		if (resolve instanceof DefinedService) {
-			Method method = EAIRepositoryUtils.getMethod(ServiceExecutor.class, "execute");
+			boolean batch = POJOUtils.isImplementation((DefinedService) resolve, getBatchInterface());
+			if (batch) {
+				properties.add(new SimpleProperty<Integer>(BatchingServiceRunner.PROPERTY_SIZE, Integer.class, false));
+				properties.add(new SimpleProperty<Long>(BatchingServiceRunner.PROPERTY_WINDOW, Long.class, false));
+			}
+			boolean async = !batch && POJOUtils.isImplementation((DefinedService) resolve, getAsyncInterface());
+			if (async) {
+				properties.add(new SimpleProperty<Long>(AsyncExecutorServiceRunner.PROPERTY_TIMEOUT, Long.class, false));
+			}
+			Method method = async ? EAIRepositoryUtils.getMethod(AsyncServiceExecutor.class, "submit") : EAIRepositoryUtils.getMethod(batch ? BatchServiceExecutor.class : ServiceExecutor.class, "execute");
 			List<Element<?>> inputExtensions = EAIRepositoryUtils.getInputExtensions((DefinedService) resolve, method);
 			if (!inputExtensions.isEmpty()) {
 				for (Element<?> element : inputExtensions) {
@@ -231,6 +555,22 @@ public class RepositoryExecutorProvider implements ExecutorProvider {
 				}
 			}
 		}
+		// every target can be prioritized, limited and retried
+		if (target != null) {
+			properties.add(new SimpleProperty<String>(PriorityServiceRunner.PROPERTY_PRIORITY, String.class, false));
+			properties.add(new SimpleProperty<Integer>(BoundedServiceRunner.PROPERTY_CONCURRENCY, Integer.class, false));
+			properties.add(new SimpleProperty<Integer>(BoundedServiceRunner.PROPERTY_QUEUE, Integer.class, false));
+			properties.add(new SimpleProperty<String>(BoundedServiceRunner.PROPERTY_POLICY, String.class, false));
+			properties.add(new SimpleProperty<Integer>(CircuitBreakerServiceRunner.PROPERTY_FAILURES, Integer.class, false));
+			properties.add(new SimpleProperty<Long>(CircuitBreakerServiceRunner.PROPERTY_OPEN_TIME, Long.class, false));
+			properties.add(new SimpleProperty<Long>(CircuitBreakerServiceRunner.PROPERTY_MIN_TIMEOUT, Long.class, false));
+			properties.add(new SimpleProperty<Long>(CircuitBreakerServiceRunner.PROPERTY_MAX_TIMEOUT, Long.class, false));
+			properties.add(new SimpleProperty<Boolean>(CircuitBreakerServiceRunner.PROPERTY_FALLBACK, Boolean.class, false));
+			properties.add(new SimpleProperty<Integer>(RetryServiceRunner.PROPERTY_ATTEMPTS, Integer.class, false));
+			properties.add(new SimpleProperty<Long>(RetryServiceRunner.PROPERTY_BACKOFF, Long.class, false));
+			properties.add(new SimpleProperty<Long>(RetryServiceRunner.PROPERTY_MAX_BACKOFF, Long.class, false));
+			properties.add(new SimpleProperty<String>(RetryServiceRunner.PROPERTY_EXCEPTIONS, String.class, false));
+		}
 		for (Property<?> property: properties) {
 			if (property instanceof SimpleProperty) {
 				((SimpleProperty<?>) property).setEvaluatable(true);
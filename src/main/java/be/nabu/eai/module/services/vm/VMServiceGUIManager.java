@@ -67,6 +67,7 @@ import be.nabu.eai.module.services.vm.util.FixedValue;
 import be.nabu.eai.module.services.vm.util.InvokeWrapper;
 import be.nabu.eai.module.services.vm.util.LinkPropertyUpdater;
 import be.nabu.eai.module.services.vm.util.Mapping;
+import be.nabu.eai.module.services.vm.util.QueryCache;
 import be.nabu.eai.module.services.vm.util.RemoveLinkListener;
 import be.nabu.eai.module.services.vm.util.StepClipboardHandler;
 import be.nabu.eai.module.services.vm.util.StepPropertyProvider;
@@ -95,7 +96,6 @@ import be.nabu.jfx.control.tree.drag.TreeDragDrop;
 import be.nabu.jfx.control.tree.drag.TreeDragListener;
 import be.nabu.jfx.control.tree.drag.TreeDropListener;
 import be.nabu.libs.artifacts.api.Artifact;
-import be.nabu.libs.evaluator.QueryParser;
 import be.nabu.libs.evaluator.QueryPart;
 import be.nabu.libs.property.ValueUtils;
 import be.nabu.libs.property.api.Property;
@@ -302,7 +302,7 @@ public class VMServiceGUIManager implements PortableArtifactGUIManager<VMService
 	}
 
 	private static void removeUsedPipelineElements(List<Element<?>> elements, List<Element<?>> inputs, List<Element<?>> outputs, String query) throws ParseException {
-		List<QueryPart> parse = QueryParser.getInstance().parse(query);
+		List<QueryPart> parse = QueryCache.getInstance().parse(query);
 		for (QueryPart part : parse) {
 			if (part.getType() == QueryPart.Type.VARIABLE) {
 				// if it starts with a "/", we have an absolute path
@@ -35,6 +35,8 @@ public class VMServiceInterfaceLister implements InterfaceLister {
 				if (descriptions == null) {
 					List<InterfaceDescription> descriptions = new ArrayList<InterfaceDescription>();
 					descriptions.add(new InterfaceDescriptionImpl("Flow Service", "Invoke Executor", "be.nabu.eai.module.services.vm.api.ServiceExecutor.execute"));
+					descriptions.add(new InterfaceDescriptionImpl("Flow Service", "Invoke Batch Executor", "be.nabu.eai.module.services.vm.api.BatchServiceExecutor.execute"));
+					descriptions.add(new InterfaceDescriptionImpl("Flow Service", "Invoke Async Executor", "be.nabu.eai.module.services.vm.api.AsyncServiceExecutor.submit"));
 					VMServiceInterfaceLister.descriptions = descriptions;
 				}
 			}
@@ -25,19 +25,38 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import be.nabu.eai.module.services.iface.ServiceInterfaceManager;
+import be.nabu.eai.module.services.vm.executor.ExecutorProperties;
+import be.nabu.eai.module.services.vm.executor.ExecutorTargetRegistry;
+import be.nabu.eai.module.services.vm.executor.ExecutorThreads;
+import be.nabu.eai.module.services.vm.util.QueryCache;
+import be.nabu.eai.module.services.vm.util.SequenceSnapshots;
+import be.nabu.eai.module.services.vm.util.StreamingSequenceParser;
+import be.nabu.eai.module.services.vm.util.VMServiceReferenceIndex;
 import be.nabu.eai.module.services.vm.util.VMServiceUtils;
 import be.nabu.eai.module.types.structure.StructureManager;
 import be.nabu.eai.repository.EAIRepositoryUtils;
 import be.nabu.eai.repository.EAIResourceRepository;
 import be.nabu.eai.repository.api.ArtifactManager;
 import be.nabu.eai.repository.api.BrokenReferenceArtifactManager;
+import be.nabu.eai.repository.api.Entry;
 import be.nabu.eai.repository.api.ModifiableNodeEntry;
 import be.nabu.eai.repository.api.Node;
 import be.nabu.eai.repository.api.Repository;
@@ -45,7 +64,6 @@ import be.nabu.eai.repository.api.ResourceEntry;
 import be.nabu.eai.repository.api.ValidatableArtifactManager;
 import be.nabu.eai.repository.api.VariableRefactorArtifactManager;
 import be.nabu.libs.artifacts.api.Artifact;
-import be.nabu.libs.evaluator.QueryParser;
 import be.nabu.libs.evaluator.QueryPart;
 import be.nabu.libs.property.ValueUtils;
 import be.nabu.libs.resources.ResourceReadableContainer;
@@ -95,6 +113,9 @@ import be.nabu.utils.io.api.WritableContainer;
 public class VMServiceManager implements ArtifactManager<VMService>, BrokenReferenceArtifactManager<VMService>, VariableRefactorArtifactManager<VMService>, ValidatableArtifactManager<VMService> {
 	
 	private static boolean PRETTIFY_SERVICE = "true".equals(System.getProperty("vm.prettify", "true"));
+	public static final String CHANGE_PIPELINE = "pipeline", CHANGE_STEPS = "steps", CHANGE_REFERENCES = "references", CHANGE_DESCRIPTION = "description";
+	
+	private static boolean LAZY_LOADING = "true".equals(System.getProperty("vm.lazy", "false"));
 	
 	private static Logger logger = LoggerFactory.getLogger(VMServiceManager.class);
 	private static java.util.Map<String, String> customTagMapping = java.util.Map.ofEntries(
@@ -110,21 +131,285 @@ public class VMServiceManager implements ArtifactManager<VMService>, BrokenRefer
 		java.util.Map.entry("be.nabu.libs.services.vm.step.Switch", "switch"),
 		java.util.Map.entry("be.nabu.libs.services.vm.step.Throw", "throw")
 	);
+	// all the custom tags are renamed to the "steps" field when parsing, this never changes so we only calculate it once
+	private static java.util.Map<String, String> renameTagMapping = buildRenameTagMapping();
+	private static volatile ComplexType sequenceType;
+	// parse the known step vocabulary directly, anything it does not support falls back to the binding
+	private static boolean STREAMING_PARSER = "true".equals(System.getProperty("vm.parser.streaming", "false"));
+	private static StreamingSequenceParser streamingParser = STREAMING_PARSER ? new StreamingSequenceParser(customTagMapping) : null;
+	private static AtomicLong pipelineTime = new AtomicLong(), sequenceTime = new AtomicLong(), descriptionTime = new AtomicLong();
+	// the fingerprint of the pipeline as it was last loaded or saved per service, an unchanged pipeline is not written again
+	private static java.util.Map<String, String> pipelineFingerprints = new ConcurrentHashMap<String, String>();
+	
+	// the binding holds parser state so it can not be shared between concurrent loaders, but it can be reused by the same thread
+	private static final ThreadLocal<XMLBinding> PARSE_BINDING = new ThreadLocal<XMLBinding>() {
+		@Override
+		protected XMLBinding initialValue() {
+			XMLBinding sequenceBinding = new XMLBinding(getSequenceType(), Charset.forName("UTF-8"));
+			sequenceBinding.setCustomTagMapping(customTagMapping);
+			sequenceBinding.setTrimContent(false);
+			sequenceBinding.setRenameTag(renameTagMapping);
+			return sequenceBinding;
+		}
+	};
+	
+	// attributes that have their default value are not written when prettifying
+	private static final java.util.Map<String, String> DEFAULT_ATTRIBUTE_VALUES = java.util.Map.of(
+		"mask", "false",
+		"optional", "false",
+		"disabled", "false",
+		"recache", "false",
+		"asynchronous", "false",
+		"fixedValue", "false",
+		"whitelist", "false",
+		"temporaryMapping", "true",
+		"invocationOrder", "0"
+	);
+	private static final AttributeFilter DEFAULT_VALUE_FILTER = new AttributeFilter() {
+		@Override
+		public boolean accept(Object content, String attribute, String value) {
+			if ("lineNumber".equals(attribute)) {
+				return false;
+			}
+			String defaultValue = DEFAULT_ATTRIBUTE_VALUES.get(attribute);
+			return defaultValue == null || !defaultValue.equals(value);
+		}
+	};
+	private static final List<String> SAME_LINE_ATTRIBUTES = List.of("id");// "x", "y"
+	
+	private static final ThreadLocal<XMLBinding> FORMAT_BINDING = new ThreadLocal<XMLBinding>() {
+		@Override
+		protected XMLBinding initialValue() {
+			return newFormatBinding(false);
+		}
+	};
+	private static final ThreadLocal<XMLBinding> PRETTY_FORMAT_BINDING = new ThreadLocal<XMLBinding>() {
+		@Override
+		protected XMLBinding initialValue() {
+			return newFormatBinding(true);
+		}
+	};
+	
+	private static java.util.Map<String, String> buildRenameTagMapping() {
+		HashMap<String, String> hashMap = new HashMap<>();
+		for (java.util.Map.Entry<String, String> entry : customTagMapping.entrySet()) {
+			hashMap.put(entry.getValue(), "steps");
+		}
+		return java.util.Collections.unmodifiableMap(hashMap);
+	}
 	
 	@Override
 	public VMService load(ResourceEntry entry, List<Validation<?>> messages) throws IOException, ParseException {
+		long started = System.nanoTime();
 		Pipeline pipeline = new ServiceInterfaceManager().loadPipeline(entry, messages);
-		// next we load the root sequence
-		Sequence sequence = parseSequence(new ResourceReadableContainer((ReadableResource) EAIRepositoryUtils.getResource(entry, "service.xml", false)));
+		pipelineFingerprints.put(entry.getId(), VMServiceUtils.fingerprint(pipeline));
+		long pipelineLoaded = System.nanoTime();
+		SimpleVMServiceDefinition definition;
+		// the steps are parsed when they are first needed
+		if (LAZY_LOADING) {
+			definition = new LazyVMServiceDefinition(pipeline, entry);
+		}
+		else {
+			definition = new SimpleVMServiceDefinition(pipeline);
+			// next we load the root sequence
+			definition.setRoot(loadSequence(entry));
+		}
+		long sequenceLoaded = System.nanoTime();
 		
-		SimpleVMServiceDefinition definition = new SimpleVMServiceDefinition(pipeline);
 		definition.setExecutorProvider(new RepositoryExecutorProvider(entry.getRepository()));
-		definition.setRoot(sequence);
 		definition.setId(entry.getId());
 		definition.setDescription(loadDescription(entry));
+		long descriptionLoaded = System.nanoTime();
+		
+		// the references stored in the node were calculated on the last save, we use them to index the service without walking the steps
+		if (entry.getNode().getReferences() != null) {
+			VMServiceReferenceIndex.getInstance().update(entry.getId(), entry.getNode().getReferences());
+		}
+		// the service may (no longer) implement one of the executor interfaces
+		ExecutorTargetRegistry.changed(entry.getRepository(), entry.getId());
+		// invokes that target the service have to pick up the new version
+		RepositoryExecutorProvider.invalidate(entry.getId());
+		
+		pipelineTime.addAndGet(pipelineLoaded - started);
+		sequenceTime.addAndGet(sequenceLoaded - pipelineLoaded);
+		descriptionTime.addAndGet(descriptionLoaded - sequenceLoaded);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Loaded service '" + entry.getId() + "' in " + ((descriptionLoaded - started) / 1000000) + "ms (pipeline: " + ((pipelineLoaded - started) / 1000000) + "ms, sequence: " + ((sequenceLoaded - pipelineLoaded) / 1000000) + "ms, description: " + ((descriptionLoaded - sequenceLoaded) / 1000000) + "ms)");
+		}
 		return definition;
 	}
+	
+	// loads all the given entries using the parallelism configured in the system property "vm.load.parallelism" (defaults to the amount of processors)
+	// the repository loads artifacts one entry at a time through load(ResourceEntry, List) and the ArtifactManager contract has no bulk hook, so nothing in this module calls this on startup
+	// it is meant for the repository loader (or a tool that warms up a repository) that already has the full list of VM service entries: it produces the same services and messages as calling load(entry, messages) on each entry in order
+	public java.util.Map<String, VMService> load(List<ResourceEntry> entries, List<Validation<?>> messages) {
+		return load(entries, messages, Integer.parseInt(System.getProperty("vm.load.parallelism", "" + Runtime.getRuntime().availableProcessors())));
+	}
+	
+	// loads all the given entries on a bounded worker pool, the result and the validation messages are in the same order as the entries, as if they were loaded sequentially
+	// entries that fail to load are logged and reported as an error message, they are not part of the result
+	public java.util.Map<String, VMService> load(List<ResourceEntry> entries, List<Validation<?>> messages, int parallelism) {
+		long started = System.nanoTime();
+		long pipelineStart = pipelineTime.get(), sequenceStart = sequenceTime.get(), descriptionStart = descriptionTime.get();
+		List<List<Validation<?>>> entryMessages = new ArrayList<List<Validation<?>>>();
+		List<Callable<VMService>> tasks = new ArrayList<Callable<VMService>>();
+		for (final ResourceEntry entry : entries) {
+			final List<Validation<?>> localMessages = new ArrayList<Validation<?>>();
+			entryMessages.add(localMessages);
+			tasks.add(new Callable<VMService>() {
+				@Override
+				public VMService call() throws Exception {
+					return load(entry, localMessages);
+				}
+			});
+		}
+		List<Future<VMService>> futures = runAll(tasks, parallelism);
+		java.util.Map<String, VMService> services = new LinkedHashMap<String, VMService>();
+		for (int i = 0; i < entries.size(); i++) {
+			try {
+				services.put(entries.get(i).getId(), futures.get(i).get());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			catch (ExecutionException e) {
+				logger.error("Could not load service: " + entries.get(i).getId(), e.getCause());
+				entryMessages.get(i).add(new ValidationMessage(Severity.ERROR, "Could not load service '" + entries.get(i).getId() + "': " + e.getCause().getMessage()));
+			}
+			messages.addAll(entryMessages.get(i));
+		}
+		logger.info("Loaded " + services.size() + "/" + entries.size() + " services in " + ((System.nanoTime() - started) / 1000000) + "ms with parallelism " + parallelism 
+			+ " (cumulative pipeline: " + ((pipelineTime.get() - pipelineStart) / 1000000) + "ms, sequence: " + ((sequenceTime.get() - sequenceStart) / 1000000) + "ms, description: " + ((descriptionTime.get() - descriptionStart) / 1000000) + "ms)");
+		return services;
+	}
+	
+	// runs all the tasks on a bounded worker pool and returns the completed futures in the same order
+	private static <T> List<Future<T>> runAll(List<Callable<T>> tasks, int parallelism) {
+		if (parallelism <= 1 || tasks.size() <= 1) {
+			List<Future<T>> futures = new ArrayList<Future<T>>();
+			for (Callable<T> task : tasks) {
+				FutureTask<T> future = new FutureTask<T>(task);
+				future.run();
+				futures.add(future);
+			}
+			return futures;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()), newLoaderThreadFactory());
+		try {
+			return executor.invokeAll(tasks);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	// applies a batch of renames (from > to) to all the VM services that reference any of them, each service is parsed and written at most once
+	// the repository refactors a move one artifact at a time through updateReference(artifact, from, to), so moving a folder of n artifacts rewrites a service that uses all of them n times
+	// this is the entry point for tools that perform such a bulk move or rename themselves: collect all the renames, call this once and then reload the returned services in the repository
+	// the impacted services are the dependents known to the repository combined with the reference index, the index also knows about services that were saved in this JVM but not yet reindexed by the repository
+	public java.util.Map<String, List<Validation<?>>> updateReferences(final Repository repository, final java.util.Map<String, String> renames, int parallelism) {
+		Set<String> impacted = new java.util.TreeSet<String>();
+		for (String from : renames.keySet()) {
+			impacted.addAll(getDependents(repository, from));
+			List<String> dependencies = repository.getDependencies(from);
+			if (dependencies != null) {
+				for (String dependency : dependencies) {
+					Entry entry = repository.getEntry(dependency);
+					if (entry instanceof ResourceEntry && entry.isNode() && VMService.class.isAssignableFrom(entry.getNode().getArtifactClass())) {
+						impacted.add(dependency);
+					}
+				}
+			}
+		}
+		final List<String> ids = new ArrayList<String>(impacted);
+		List<Callable<List<Validation<?>>>> tasks = new ArrayList<Callable<List<Validation<?>>>>();
+		for (final String id : ids) {
+			tasks.add(new Callable<List<Validation<?>>>() {
+				@Override
+				public List<Validation<?>> call() throws Exception {
+					List<Validation<?>> messages = new ArrayList<Validation<?>>();
+					ResourceEntry entry = (ResourceEntry) repository.getEntry(id);
+					VMService artifact = load(entry, messages);
+					for (java.util.Map.Entry<String, String> rename : renames.entrySet()) {
+						updateInterfaceReferences(artifact, rename.getKey(), rename.getValue());
+						messages.addAll(StructureManager.updateReferences(artifact.getPipeline(), rename.getKey(), rename.getValue()));
+						updateReferences(artifact.getRoot(), rename.getKey(), rename.getValue());
+					}
+					saveChanges(entry, artifact);
+					return messages;
+				}
+			});
+		}
+		long started = System.nanoTime();
+		List<Future<List<Validation<?>>>> futures = runAll(tasks, parallelism);
+		java.util.Map<String, List<Validation<?>>> result = new LinkedHashMap<String, List<Validation<?>>>();
+		for (int i = 0; i < ids.size(); i++) {
+			try {
+				result.put(ids.get(i), futures.get(i).get());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			catch (ExecutionException e) {
+				logger.error("Could not update references in service: " + ids.get(i), e.getCause());
+				List<Validation<?>> messages = new ArrayList<Validation<?>>();
+				messages.add(new ValidationMessage(Severity.ERROR, "Could not update references in service '" + ids.get(i) + "': " + e.getCause().getMessage()));
+				result.put(ids.get(i), messages);
+			}
+		}
+		logger.info("Updated " + renames.size() + " references in " + ids.size() + " services in " + ((System.nanoTime() - started) / 1000000) + "ms");
+		return result;
+	}
+	
+	// use virtual threads if the runtime supports them, the loaders spend most of their time waiting on the resources
+	private static ThreadFactory newLoaderThreadFactory() {
+		return "true".equals(System.getProperty("vm.load.virtual", "true")) ? ExecutorThreads.newVirtualFactory("vm-service-loader") : ExecutorThreads.newDaemonFactory("vm-service-loader");
+	}
+	
+	// the cumulative time (in nanoseconds) spent in the different phases of loading a service
+	public static long getPipelineLoadTime() {
+		return pipelineTime.get();
+	}
+	public static long getSequenceLoadTime() {
+		return sequenceTime.get();
+	}
+	public static long getDescriptionLoadTime() {
+		return descriptionTime.get();
+	}
 
+	// the step class > tag name mapping used when formatting prettified sequences
+	public static java.util.Map<String, String> getCustomTagMapping() {
+		return customTagMapping;
+	}
+
+	public static Sequence loadSequence(ResourceEntry entry) throws IOException, ParseException {
+		ReadableContainer<ByteBuffer> readable = new ResourceReadableContainer((ReadableResource) EAIRepositoryUtils.getResource(entry, "service.xml", false));
+		if (!SequenceSnapshots.isEnabled()) {
+			return parseSequence(readable);
+		}
+		byte[] content;
+		try {
+			content = IOUtils.toBytes(readable);
+		}
+		finally {
+			readable.close();
+		}
+		// if the service.xml has not changed since the snapshot was taken, we don't need to parse it
+		String hash = VMServiceUtils.hash(content);
+		Sequence sequence = SequenceSnapshots.read(entry.getId(), hash);
+		if (sequence == null) {
+			sequence = parseSequence(IOUtils.wrap(content, true));
+			SequenceSnapshots.write(entry.getId(), hash, sequence);
+		}
+		return sequence;
+	}
+	
 	public static String loadDescription(ResourceEntry entry) throws IOException, UnsupportedEncodingException {
 		Resource child = entry.getContainer().getChild("description.txt");
 		if (child instanceof ReadableResource) {
@@ -140,43 +425,143 @@ public class VMServiceManager implements ArtifactManager<VMService>, BrokenRefer
 	}
 
 	public static Sequence parseSequence(ReadableContainer<ByteBuffer> readable) throws IOException, ParseException {
-		XMLBinding sequenceBinding = new XMLBinding((ComplexType) BeanResolver.getInstance().resolve(Sequence.class), Charset.forName("UTF-8"));
-		sequenceBinding.setCustomTagMapping(customTagMapping);
-		sequenceBinding.setTrimContent(false);
-		HashMap<String, String> hashMap = new HashMap<>();
-		for (java.util.Map.Entry<String, String> entry : customTagMapping.entrySet()) {
-			hashMap.put(entry.getValue(), "steps");
+		if (STREAMING_PARSER) {
+			byte[] content;
+			try {
+				content = IOUtils.toBytes(readable);
+			}
+			finally {
+				readable.close();
+			}
+			try {
+				return streamingParser.parse(content);
+			}
+			catch (Exception e) {
+				logger.debug("Could not stream parse the sequence, falling back to the binding", e);
+				readable = IOUtils.wrap(content, true);
+			}
 		}
-		sequenceBinding.setRenameTag(hashMap);
 		Sequence sequence = null;
 		try {
-			sequence = TypeUtils.getAsBean(sequenceBinding.unmarshal(IOUtils.toInputStream(readable), new Window[0]), Sequence.class);
+			sequence = TypeUtils.getAsBean(PARSE_BINDING.get().unmarshal(IOUtils.toInputStream(readable), new Window[0]), Sequence.class);
 		}
 		finally {
 			readable.close();
 		}
 		return sequence;
 	}
+	
+	private static ComplexType getSequenceType() {
+		if (sequenceType == null) {
+			synchronized(VMServiceManager.class) {
+				if (sequenceType == null) {
+					sequenceType = (ComplexType) BeanResolver.getInstance().resolve(Sequence.class);
+				}
+			}
+		}
+		return sequenceType;
+	}
 
 	@Override
 	public List<Validation<?>> save(ResourceEntry entry, VMService artifact) throws IOException {
-		new ServiceInterfaceManager().savePipeline(entry, artifact.getPipeline());
+		Set<String> changes = saveChanges(entry, artifact);
+		logger.debug("Saved service '" + entry.getId() + "', changed: " + changes);
+		// steps that were never loaded were validated the last time they were saved, parsing them just to validate them again defeats the lazy loading
+		if (artifact instanceof LazyVMServiceDefinition && !((LazyVMServiceDefinition) artifact).isLoaded()) {
+			return new ArrayList<Validation<?>>();
+		}
+		return artifact.getRoot().validate(new SimpleServiceContext());		
+	}
+	
+	// saves the service but only writes the resources that have actually changed, the returned set contains the parts that were modified (see the CHANGE_* constants)
+	public Set<String> saveChanges(ResourceEntry entry, VMService artifact) throws IOException {
+		Set<String> changes = new LinkedHashSet<String>();
+		
+		// the interface manager always writes the pipeline, so we only call it if the pipeline differs from the one we loaded or saved last
+		String pipelineFingerprint = VMServiceUtils.fingerprint(artifact.getPipeline());
+		if (!pipelineFingerprint.equals(pipelineFingerprints.get(entry.getId())) || entry.getContainer().getChild("pipeline.xml") == null) {
+			String pipelineHash = hashResource(entry, "pipeline.xml");
+			new ServiceInterfaceManager().savePipeline(entry, artifact.getPipeline());
+			if (pipelineHash == null || !pipelineHash.equals(hashResource(entry, "pipeline.xml"))) {
+				changes.add(CHANGE_PIPELINE);
+			}
+			pipelineFingerprints.put(entry.getId(), pipelineFingerprint);
+		}
 		
-		// make sure the line numbers are correct
-		VMServiceUtils.renumber(artifact);
+		// if the steps were never loaded, they can not have changed
+		if (!(artifact instanceof LazyVMServiceDefinition) || ((LazyVMServiceDefinition) artifact).isLoaded()) {
+			// make sure the line numbers are correct
+			VMServiceUtils.renumber(artifact);
+			
+			// next we save the root sequence
+			ByteBuffer buffer = IOUtils.newByteBuffer();
+			formatSequence(buffer, artifact.getRoot());
+			if (writeIfChanged(entry, "service.xml", IOUtils.toBytes(buffer))) {
+				changes.add(CHANGE_STEPS);
+			}
+		}
 		
-		// next we load the root sequence
-		formatSequence(new ResourceWritableContainer((WritableResource) EAIRepositoryUtils.getResource(entry, "service.xml", true)), artifact.getRoot());
 		if (entry instanceof ModifiableNodeEntry) {
-			((ModifiableNodeEntry) entry).updateNode(getReferences(artifact));
+			List<String> references = getReferences(artifact);
+			List<String> current = entry.getNode().getReferences();
+			boolean referencesChanged = current == null || !new HashSet<String>(current).equals(new HashSet<String>(references));
+			// the node is updated whenever the service changed, but the references only count as changed if they differ
+			if (!changes.isEmpty() || referencesChanged) {
+				((ModifiableNodeEntry) entry).updateNode(references);
+			}
+			if (referencesChanged) {
+				changes.add(CHANGE_REFERENCES);
+			}
+			VMServiceReferenceIndex.getInstance().update(entry.getId(), references);
+		}
+		else {
+			VMServiceReferenceIndex.getInstance().update(entry.getId(), getReferences(artifact));
 		}
 		
-		saveDescription(entry, artifact);
+		if (changes.contains(CHANGE_PIPELINE)) {
+			ExecutorTargetRegistry.changed(entry.getRepository(), entry.getId());
+		}
 		
-		return artifact.getRoot().validate(new SimpleServiceContext());		
+		if (saveDescriptionIfChanged(entry, artifact)) {
+			changes.add(CHANGE_DESCRIPTION);
+		}
+		return changes;
+	}
+	
+	private static String hashResource(ResourceEntry entry, String name) throws IOException {
+		Resource child = entry.getContainer().getChild(name);
+		if (child instanceof ReadableResource) {
+			ResourceReadableContainer readable = new ResourceReadableContainer((ReadableResource) child);
+			try {
+				return VMServiceUtils.hash(IOUtils.toBytes(readable));
+			}
+			finally {
+				readable.close();
+			}
+		}
+		return null;
+	}
+	
+	private static boolean writeIfChanged(ResourceEntry entry, String name, byte[] content) throws IOException {
+		String hash = hashResource(entry, name);
+		if (hash != null && hash.equals(VMServiceUtils.hash(content))) {
+			return false;
+		}
+		ResourceWritableContainer writable = new ResourceWritableContainer((WritableResource) EAIRepositoryUtils.getResource(entry, name, true));
+		try {
+			writable.write(IOUtils.wrap(content, true));
+		}
+		finally {
+			writable.close();
+		}
+		return true;
 	}
 
 	public static void saveDescription(ResourceEntry entry, VMService artifact) throws IOException, UnsupportedEncodingException {
+		saveDescriptionIfChanged(entry, artifact);
+	}
+	
+	private static boolean saveDescriptionIfChanged(ResourceEntry entry, VMService artifact) throws IOException, UnsupportedEncodingException {
 		// only do something with the file if we support it, leave the file alone if we don't, someone else might be managing it
 		if (artifact.isSupportsDescription()) {
 			Resource child = entry.getContainer().getChild("description.txt");
@@ -184,53 +569,24 @@ public class VMServiceManager implements ArtifactManager<VMService>, BrokenRefer
 			if (artifact.getDescription() == null || artifact.getDescription().trim().isEmpty()) {
 				if (child != null) {
 					((ManageableContainer<?>) entry.getContainer()).delete("description.txt");
+					return true;
 				}
 			}
 			else {
 				if (child == null) {
-					child = ((ManageableContainer<?>) entry.getContainer()).create("description.txt", "text/plain");
-				}
-				ResourceWritableContainer resourceWritableContainer = new ResourceWritableContainer((WritableResource) child);
-				try {
-					resourceWritableContainer.write(IOUtils.wrap(artifact.getDescription().getBytes("UTF-8"), true));
-				}
-				finally {
-					resourceWritableContainer.close();
+					((ManageableContainer<?>) entry.getContainer()).create("description.txt", "text/plain");
 				}
+				return writeIfChanged(entry, "description.txt", artifact.getDescription().getBytes("UTF-8"));
 			}
 		}
+		return false;
 	}
 
 	public static void formatSequence(WritableContainer<ByteBuffer> writable, Sequence sequence) throws IOException {
 		formatSequence(writable, sequence, PRETTIFY_SERVICE);
 	}
 	public static void formatSequence(WritableContainer<ByteBuffer> writable, Sequence sequence, boolean prettify) throws IOException {
-		XMLBinding sequenceBinding = new XMLBinding((ComplexType) BeanResolver.getInstance().resolve(Sequence.class), Charset.forName("UTF-8"));
-		sequenceBinding.setMultilineInAttributes(true);
-		sequenceBinding.setMultilineAttributes(true);
-		if (prettify) {
-			sequenceBinding.setAllowXSI(false);
-			sequenceBinding.setCustomTagMapping(customTagMapping);
-			sequenceBinding.setAttributeFilter(new AttributeFilter() {
-				@Override
-				public boolean accept(Object content, String attribute, String value) {
-					java.util.Map<String, String> map = java.util.Map.of(
-						"mask", "false",
-						"optional", "false",
-						"disabled", "false",
-						"recache", "false",
-						"asynchronous", "false",
-						"fixedValue", "false",
-						"whitelist", "false",
-						"temporaryMapping", "true",
-						"invocationOrder", "0"
-					);
-					Object defaultValue = map.get(attribute);
-					return !"lineNumber".equals(attribute) && (defaultValue == null || !defaultValue.equals(value));
-				}
-			});
-			sequenceBinding.setSameLineAttributes(List.of("id"));// "x", "y"
-		}
+		XMLBinding sequenceBinding = prettify ? PRETTY_FORMAT_BINDING.get() : FORMAT_BINDING.get();
 		try {
 			sequenceBinding.marshal(IOUtils.toOutputStream(writable), new BeanInstance<Sequence>(sequence));
 		}
@@ -238,6 +594,19 @@ public class VMServiceManager implements ArtifactManager<VMService>, BrokenRefer
 			writable.close();
 		}
 	}
+	
+	private static XMLBinding newFormatBinding(boolean prettify) {
+		XMLBinding sequenceBinding = new XMLBinding(getSequenceType(), Charset.forName("UTF-8"));
+		sequenceBinding.setMultilineInAttributes(true);
+		sequenceBinding.setMultilineAttributes(true);
+		if (prettify) {
+			sequenceBinding.setAllowXSI(false);
+			sequenceBinding.setCustomTagMapping(customTagMapping);
+			sequenceBinding.setAttributeFilter(DEFAULT_VALUE_FILTER);
+			sequenceBinding.setSameLineAttributes(SAME_LINE_ATTRIBUTES);
+		}
+		return sequenceBinding;
+	}
 
 	@Override
 	public Class<VMService> getArtifactClass() {
@@ -252,7 +621,13 @@ public class VMServiceManager implements ArtifactManager<VMService>, BrokenRefer
 		// all the type references (including input and output) are in the pipeline
 		references.addAll(StructureManager.getComplexReferences(artifact.getPipeline()));
 		// another reference are all the services that are invoked
-		references.addAll(getReferencesForStep(artifact.getRoot()));
+		// if the steps have not been loaded yet, they can not have changed since the references were last calculated and stored in the node
+		if (artifact instanceof LazyVMServiceDefinition && !((LazyVMServiceDefinition) artifact).isLoaded() && ((LazyVMServiceDefinition) artifact).getEntry().getNode().getReferences() != null) {
+			references.addAll(((LazyVMServiceDefinition) artifact).getEntry().getNode().getReferences());
+		}
+		else {
+			references.addAll(getReferencesForStep(artifact.getRoot()));
+		}
 		return new ArrayList<String>(references);
 	}
 
@@ -268,25 +643,33 @@ public class VMServiceManager implements ArtifactManager<VMService>, BrokenRefer
 	}
 	
 	public static List<String> getReferencesForStep(StepGroup steps) {
-		List<String> references = new ArrayList<String>();
+		Set<String> references = new LinkedHashSet<String>();
+		getReferencesForStep(steps, references);
+		return new ArrayList<String>(references);
+	}
+	
+	private static void getReferencesForStep(StepGroup steps, Set<String> references) {
 		for (Step step : steps.getChildren()) {
 			if (step instanceof Invoke) {
-				String id = ((Invoke) step).getServiceId();
-				if (!references.contains(id)) {
-					references.add(id);
-				}
+				references.add(((Invoke) step).getServiceId());
 				String target = ((Invoke) step).getTarget();
 				// no runtime interpreted targets or $any, $all...
 				if (target != null && !target.startsWith("=") && !target.startsWith("$")) {
-					String[] split = target.split(":");
-					references.add(split[0]);
+					// strip the query (e.g. ?priority=low) and anything after the runner (e.g. :$any)
+					target = ExecutorProperties.getTarget(target);
+					int index = target.indexOf(':');
+					references.add(index < 0 ? target : target.substring(0, index));
 				}
 			}
 			if (step instanceof StepGroup) {
-				references.addAll(getReferencesForStep((StepGroup) step));
+				getReferencesForStep((StepGroup) step, references);
 			}
 		}
-		return references;
+	}
+	
+	// the services that reference the given artifact, based on the reference index
+	public static List<String> getDependents(Repository repository, String artifactId) {
+		return VMServiceReferenceIndex.getInstance().getDependents(repository, artifactId);
 	}
 	
 	public static void updateInterfaceReferences(VMService artifact, String from, String to) {
@@ -304,9 +687,9 @@ public class VMServiceManager implements ArtifactManager<VMService>, BrokenRefer
 					((Invoke) step).setServiceId(to);
 				}
 				String target = ((Invoke) step).getTarget();
-				if (target != null && target.startsWith(from + ":")) {
-					target = to + ":" + target.substring(from.length() + 1);
-					((Invoke) step).setTarget(target);
+				// the runner can be followed by a selection (e.g. :$any) or by a query (e.g. ?priority=low)
+				if (target != null && (target.equals(from) || target.startsWith(from + ":") || target.startsWith(from + "?"))) {
+					((Invoke) step).setTarget(to + target.substring(from.length()));
 				}
 			}
 			if (step instanceof StepGroup) {
@@ -321,6 +704,7 @@ public class VMServiceManager implements ArtifactManager<VMService>, BrokenRefer
 		updateInterfaceReferences(artifact, from, to);
 		messages.addAll(StructureManager.updateReferences(artifact.getPipeline(), from, to));
 		updateReferences(artifact.getRoot(), from, to);
+		VMServiceReferenceIndex.getInstance().update(artifact.getId(), getReferences(artifact));
 		return messages;
 	}
 
@@ -637,7 +1021,7 @@ public class VMServiceManager implements ArtifactManager<VMService>, BrokenRefer
 	
 	private static String rewriteQuery(String query, ParsedPath oldPath, ParsedPath newPath) {
 		try {
-			List<QueryPart> parse = QueryParser.getInstance().parse(query);
+			List<QueryPart> parse = QueryCache.getInstance().parse(query);
 			int depth = 0;
 			StringBuilder builder = new StringBuilder();
 			int lastEnd = 0;
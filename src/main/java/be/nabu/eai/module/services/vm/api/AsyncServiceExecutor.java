@@ -0,0 +1,26 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.api;
+
+import javax.jws.WebParam;
+
+public interface AsyncServiceExecutor {
+	// hand off the service, the result must be reported afterwards through the service nabu.services.vm.Executor.complete (or fail) using the correlation id
+	public void submit(@WebParam(name = "serviceId") String serviceId, @WebParam(name = "input") Object input, @WebParam(name = "correlationId") String correlationId);
+}
@@ -0,0 +1,104 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.types.ComplexContentWrapperFactory;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Keeps track of the invokes that were handed off to an asynchronous executor and are waiting for their result.
+ * No thread is blocked while waiting, the future is completed by whoever reports the result.
+ */
+public class AsyncExecutions {
+	
+	private static Map<String, CompletableFuture<ServiceResult>> pending = new ConcurrentHashMap<String, CompletableFuture<ServiceResult>>();
+	private static ScheduledThreadPoolExecutor timeouts = newTimeouts();
+	
+	private static ScheduledThreadPoolExecutor newTimeouts() {
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, ExecutorThreads.newDaemonFactory("vm-async-timeouts"));
+		// most executions complete long before their timeout, the cancelled timeouts should not linger in the queue until they expire
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+	
+	// registers a new pending execution that fails if no result is reported within the timeout
+	public static String register(CompletableFuture<ServiceResult> future, long timeout) {
+		final String correlationId = UUID.randomUUID().toString().replace("-", "");
+		pending.put(correlationId, future);
+		final ScheduledFuture<?> scheduled = timeout <= 0 ? null : timeouts.schedule(new Runnable() {
+			@Override
+			public void run() {
+				fail(correlationId, new TimeoutException("No result reported for asynchronous execution: " + correlationId));
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		// however the future is completed (including a cancel by the caller), the timeout and the registration are no longer needed
+		future.whenComplete(new BiConsumer<ServiceResult, Throwable>() {
+			@Override
+			public void accept(ServiceResult result, Throwable exception) {
+				pending.remove(correlationId);
+				if (scheduled != null) {
+					scheduled.cancel(false);
+				}
+			}
+		});
+		return correlationId;
+	}
+	
+	// returns false if the execution is unknown, for example because it already timed out
+	public static boolean complete(String correlationId, Object output) {
+		CompletableFuture<ServiceResult> future = pending.remove(correlationId);
+		if (future == null) {
+			return false;
+		}
+		if (output != null && !(output instanceof ComplexContent)) {
+			output = ComplexContentWrapperFactory.getInstance().getWrapper().wrap(output);
+		}
+		return future.complete(new ExecutorServiceResult((ComplexContent) output));
+	}
+	
+	public static boolean complete(String correlationId, ServiceResult result) {
+		CompletableFuture<ServiceResult> future = pending.remove(correlationId);
+		return future != null && future.complete(result);
+	}
+	
+	public static boolean fail(String correlationId, Throwable exception) {
+		CompletableFuture<ServiceResult> future = pending.remove(correlationId);
+		return future != null && future.completeExceptionally(exception);
+	}
+	
+	public static int getPending() {
+		return pending.size();
+	}
+	
+	// the amount of timeouts that are still scheduled
+	static int getScheduledTimeouts() {
+		return timeouts.getQueue().size();
+	}
+}
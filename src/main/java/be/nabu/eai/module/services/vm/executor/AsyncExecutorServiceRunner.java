@@ -0,0 +1,90 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import be.nabu.eai.repository.api.Repository;
+import be.nabu.libs.services.api.DefinedService;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Hands off the invoke to an asynchronous executor, the returned future is completed when the result is reported through the service nabu.services.vm.Executor.complete (or AsyncExecutions from java).
+ * The submit is not waited for, if it fails the returned future fails as well.
+ */
+public class AsyncExecutorServiceRunner implements ServiceRunner {
+
+	public static final String PROPERTY_TIMEOUT = "asyncTimeout";
+	
+	private Repository repository;
+	private DefinedService executor;
+	private Map<String, ?> properties;
+	private long timeout;
+
+	public AsyncExecutorServiceRunner(Repository repository, DefinedService executor, Map<String, ?> properties) {
+		this.repository = repository;
+		this.executor = executor;
+		this.properties = properties;
+		// by default we wait an hour for the result
+		this.timeout = ExecutorProperties.getLong(properties, PROPERTY_TIMEOUT, 3600000);
+	}
+	
+	@Override
+	public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+		CompletableFuture<ServiceResult> future = new CompletableFuture<ServiceResult>();
+		final String correlationId = AsyncExecutions.register(future, timeout);
+		ComplexContent runnerInput = executor.getServiceInterface().getInputDefinition().newInstance();
+		runnerInput.set("input", input);
+		runnerInput.set("serviceId", ((DefinedService) service).getId());
+		runnerInput.set("correlationId", correlationId);
+		if (properties != null) {
+			for (String key : properties.keySet()) {
+				if (!ExecutorProperties.isControl(key)) {
+					runnerInput.set(key, properties.get(key));
+				}
+			}
+		}
+		try {
+			// we don't wait for the submit, only a failed submit completes the execution, the result is reported later on
+			ExecutorFutures.whenComplete(repository.getServiceRunner().run(executor, context, runnerInput, observers), new BiConsumer<ServiceResult, Throwable>() {
+				@Override
+				public void accept(ServiceResult result, Throwable exception) {
+					if (exception != null) {
+						AsyncExecutions.fail(correlationId, exception);
+					}
+					else if (result != null && result.getException() != null) {
+						AsyncExecutions.complete(correlationId, result);
+					}
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			AsyncExecutions.fail(correlationId, e);
+		}
+		return future;
+	}
+}
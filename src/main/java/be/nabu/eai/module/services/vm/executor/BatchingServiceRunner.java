@@ -0,0 +1,231 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.eai.repository.api.Repository;
+import be.nabu.libs.authentication.api.Token;
+import be.nabu.libs.services.api.DefinedService;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.ComplexContentWrapperFactory;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Coalesces invokes of the same service through the same batch executor into a single call.
+ * A batch is sent when it reaches the configured size or when the time window since its first invoke has passed, whichever comes first.
+ * The execution context of the first invoke in a batch is used to run the batch executor, so only invokes that run as the same principal are combined.
+ * The caller waits for its own output, which is its slice of the outputs of the batch. Invokes that are done concurrently (e.g. from parallel flows) are combined, a sequential loop waits up to the window for every iteration.
+ * Full and expired batches are flushed by the same bounded pool of threads ("vm.executor.batch.flushers", defaults to the amount of processors), a flush does not wait for the batch executor to finish.
+ */
+public class BatchingServiceRunner implements ServiceRunner {
+
+	public static final String PROPERTY_SIZE = "coalesceSize";
+	public static final String PROPERTY_WINDOW = "coalesceWindow";
+	
+	private static Logger logger = LoggerFactory.getLogger(BatchingServiceRunner.class);
+	private static Map<List<Object>, Batch> batches = new HashMap<List<Object>, Batch>();
+	private static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(ExecutorThreads.newDaemonFactory("vm-batch-scheduler"));
+	private static ThreadPoolExecutor flushers = newFlushers();
+	
+	private static ThreadPoolExecutor newFlushers() {
+		int flushers = Integer.parseInt(System.getProperty("vm.executor.batch.flushers", "" + Runtime.getRuntime().availableProcessors()));
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(flushers, flushers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), ExecutorThreads.newDaemonFactory("vm-batch"));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	private Repository repository;
+	private DefinedService executor;
+	private Map<String, ?> properties;
+	private int size;
+	private long window;
+
+	public BatchingServiceRunner(Repository repository, DefinedService executor, Map<String, ?> properties) {
+		this.repository = repository;
+		this.executor = executor;
+		this.properties = properties;
+		this.size = ExecutorProperties.getInteger(properties, PROPERTY_SIZE, 100);
+		this.window = ExecutorProperties.getLong(properties, PROPERTY_WINDOW, 10);
+	}
+	
+	@Override
+	public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+		CompletableFuture<ServiceResult> future = new CompletableFuture<ServiceResult>();
+		String serviceId = ((DefinedService) service).getId();
+		// invokes can only be combined if they go to the same executor for the same service with the same properties on behalf of the same principal
+		final List<Object> key = Arrays.asList(executor.getId(), serviceId, ExecutorProperties.withoutControl(properties), getPrincipal(context));
+		Batch full = null;
+		synchronized(batches) {
+			Batch batch = batches.get(key);
+			if (batch == null) {
+				batch = new Batch(serviceId, context, observers);
+				batches.put(key, batch);
+				final Batch scheduled = batch;
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						boolean expired = false;
+						synchronized(batches) {
+							if (batches.get(key) == scheduled) {
+								batches.remove(key);
+								expired = true;
+							}
+						}
+						if (expired) {
+							submit(scheduled);
+						}
+					}
+				}, window, TimeUnit.MILLISECONDS);
+			}
+			batch.add(input, future);
+			if (batch.size() >= size) {
+				batches.remove(key);
+				full = batch;
+			}
+		}
+		if (full != null) {
+			submit(full);
+		}
+		return future;
+	}
+	
+	private void submit(final Batch batch) {
+		try {
+			flushers.execute(new Runnable() {
+				@Override
+				public void run() {
+					flush(batch);
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			fail(batch, e);
+		}
+	}
+	
+	private static String getPrincipal(ExecutionContext context) {
+		Token token = context == null || context.getSecurityContext() == null ? null : context.getSecurityContext().getToken();
+		return token == null ? null : token.getRealm() + ":" + token.getName();
+	}
+	
+	private void flush(final Batch batch) {
+		try {
+			ComplexContent runnerInput = executor.getServiceInterface().getInputDefinition().newInstance();
+			runnerInput.set("inputs", batch.inputs);
+			runnerInput.set("serviceId", batch.serviceId);
+			if (properties != null) {
+				for (String key : properties.keySet()) {
+					if (!ExecutorProperties.isControl(key)) {
+						runnerInput.set(key, properties.get(key));
+					}
+				}
+			}
+			Future<ServiceResult> future = repository.getServiceRunner().run(executor, batch.context, runnerInput, batch.observers);
+			// the flusher does not wait for the batch executor
+			ExecutorFutures.whenComplete(future, new BiConsumer<ServiceResult, Throwable>() {
+				@Override
+				public void accept(ServiceResult result, Throwable exception) {
+					if (exception != null) {
+						fail(batch, exception);
+					}
+					else {
+						distribute(batch, result);
+					}
+				}
+			});
+		}
+		catch (Exception e) {
+			fail(batch, e);
+		}
+	}
+	
+	// every invoke gets the output at its own position
+	private void distribute(Batch batch, ServiceResult result) {
+		try {
+			if (result.getException() != null) {
+				for (CompletableFuture<ServiceResult> future : batch.futures) {
+					future.complete(result);
+				}
+				return;
+			}
+			Object outputs = result.getOutput() == null ? null : result.getOutput().get("outputs");
+			if (!(outputs instanceof List) || ((List<?>) outputs).size() != batch.futures.size()) {
+				throw new IllegalStateException("The batch executor '" + executor.getId() + "' did not return an output for each input");
+			}
+			for (int i = 0; i < batch.futures.size(); i++) {
+				Object output = ((List<?>) outputs).get(i);
+				if (output != null && !(output instanceof ComplexContent)) {
+					output = ComplexContentWrapperFactory.getInstance().getWrapper().wrap(output);
+				}
+				batch.futures.get(i).complete(new ExecutorServiceResult((ComplexContent) output));
+			}
+		}
+		catch (Exception e) {
+			fail(batch, e);
+		}
+	}
+	
+	private void fail(Batch batch, Throwable exception) {
+		logger.error("Could not run batch of " + batch.futures.size() + " invokes for '" + batch.serviceId + "' through executor: " + executor.getId(), exception);
+		for (CompletableFuture<ServiceResult> future : batch.futures) {
+			future.completeExceptionally(exception);
+		}
+	}
+	
+	private static class Batch {
+		private String serviceId;
+		private ExecutionContext context;
+		private ServiceRunnableObserver[] observers;
+		private List<Object> inputs = new ArrayList<Object>();
+		private List<CompletableFuture<ServiceResult>> futures = new ArrayList<CompletableFuture<ServiceResult>>();
+		
+		public Batch(String serviceId, ExecutionContext context, ServiceRunnableObserver[] observers) {
+			this.serviceId = serviceId;
+			this.context = context;
+			this.observers = observers;
+		}
+		public void add(ComplexContent input, CompletableFuture<ServiceResult> future) {
+			inputs.add(input);
+			futures.add(future);
+		}
+		public int size() {
+			return futures.size();
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Limits the amount of invokes that can be in flight for a target, an invoke stays in flight until its future is done.
+ * When the target is saturated, the policy determines what happens:
+ * - block: wait for a slot, unless more than the maximum queue size are already waiting in which case the invoke is rejected
+ * - fail: reject the invoke immediately
+ * - shed: drop the invoke, it is not run and the future completes with a result that holds an EXECUTOR-SHED exception
+ * There is one limit per target. If invokes configure the same target differently, the lowest concurrency and the lowest queue size apply to all of them.
+ * The limit is only raised again after a reset, which happens when the executor service behind the target is reloaded.
+ * Targets that only hand the invoke off without returning a future (e.g. $any and $all) release their slot at hand-off, for those the limit bounds the rate of dispatch, not the work in flight on other servers.
+ * When the metrics are enabled, queued, rejected and shed invokes are reported to them.
+ */
+public class BoundedServiceRunner implements ServiceRunner {
+
+	public static final String PROPERTY_CONCURRENCY = "maxConcurrency";
+	public static final String PROPERTY_QUEUE = "maxQueue";
+	public static final String PROPERTY_POLICY = "saturationPolicy";
+	
+	public enum SaturationPolicy {
+		BLOCK,
+		FAIL,
+		SHED
+	}
+	
+	private static Map<String, TargetLimit> limits = new ConcurrentHashMap<String, TargetLimit>();
+	
+	public static TargetLimit getLimit(String target) {
+		return limits.get(target);
+	}
+	
+	public static Map<String, TargetLimit> getLimits() {
+		return limits;
+	}
+	
+	// the artifact was reloaded, the next invokes on it start a new limit with their own configuration, invokes that are still in flight release the old one
+	public static void reset(String id) {
+		for (String target : limits.keySet()) {
+			if (target.equals(id) || target.startsWith(id + ":")) {
+				limits.remove(target);
+			}
+		}
+	}
+	
+	private ServiceRunner runner;
+	private TargetLimit limit;
+	private SaturationPolicy policy;
+	
+	public BoundedServiceRunner(String target, ServiceRunner runner, Map<String, ?> properties) {
+		this.runner = runner;
+		final int concurrency = ExecutorProperties.getInteger(properties, PROPERTY_CONCURRENCY, 0);
+		final int queue = ExecutorProperties.getInteger(properties, PROPERTY_QUEUE, Integer.MAX_VALUE);
+		this.policy = SaturationPolicy.valueOf(ExecutorProperties.getString(properties, PROPERTY_POLICY, SaturationPolicy.BLOCK.name()).toUpperCase());
+		this.limit = limits.computeIfAbsent(target, new Function<String, TargetLimit>() {
+			@Override
+			public TargetLimit apply(String target) {
+				return new TargetLimit(target, concurrency, queue);
+			}
+		});
+		this.limit.restrict(concurrency, queue);
+	}
+	
+	public static boolean isBounded(Map<String, ?> properties) {
+		return ExecutorProperties.getInteger(properties, PROPERTY_CONCURRENCY, 0) > 0;
+	}
+	
+	@Override
+	public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+		if (!limit.acquire(policy)) {
+			if (policy == SaturationPolicy.SHED) {
+				return CompletableFuture.<ServiceResult>completedFuture(new ExecutorServiceResult(new ServiceException("EXECUTOR-SHED", "The invoke was shed, the target is saturated: " + limit.getInFlight() + " in flight")));
+			}
+			throw new RejectedExecutionException("The target is saturated: " + limit.getInFlight() + " in flight, " + limit.getQueued() + " queued");
+		}
+		try {
+			return ExecutorFutures.whenComplete(runner.run(service, context, input, observers), new BiConsumer<ServiceResult, Throwable>() {
+				@Override
+				public void accept(ServiceResult result, Throwable exception) {
+					limit.release();
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			limit.release();
+			throw e;
+		}
+	}
+	
+	// a semaphore that can be made smaller while permits are taken
+	private static class LimitSemaphore extends Semaphore {
+		private static final long serialVersionUID = 1L;
+		
+		public LimitSemaphore(int permits) {
+			super(permits, true);
+		}
+		@Override
+		public void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+	
+	public static class TargetLimit {
+		private String target;
+		private volatile int maxConcurrency, maxQueue;
+		private LimitSemaphore semaphore;
+		private AtomicInteger queued = new AtomicInteger();
+		private AtomicLong rejected = new AtomicLong(), shed = new AtomicLong();
+		
+		public TargetLimit(String target, int maxConcurrency, int maxQueue) {
+			this.target = target;
+			this.maxConcurrency = maxConcurrency;
+			this.maxQueue = maxQueue;
+			this.semaphore = new LimitSemaphore(maxConcurrency);
+		}
+		
+		// the lowest configuration wins
+		private synchronized void restrict(int maxConcurrency, int maxQueue) {
+			if (maxConcurrency < this.maxConcurrency) {
+				semaphore.reducePermits(this.maxConcurrency - maxConcurrency);
+				this.maxConcurrency = maxConcurrency;
+			}
+			if (maxQueue < this.maxQueue) {
+				this.maxQueue = maxQueue;
+			}
+		}
+		
+		private boolean acquire(SaturationPolicy policy) {
+			if (semaphore.tryAcquire()) {
+				return true;
+			}
+			else if (policy == SaturationPolicy.BLOCK) {
+				if (queued.incrementAndGet() <= maxQueue) {
+					report("queued");
+					try {
+						semaphore.acquire();
+						return true;
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					finally {
+						queued.decrementAndGet();
+					}
+				}
+				else {
+					queued.decrementAndGet();
+				}
+			}
+			if (policy == SaturationPolicy.SHED) {
+				shed.incrementAndGet();
+				report("shed");
+			}
+			else {
+				rejected.incrementAndGet();
+				report("rejected");
+			}
+			return false;
+		}
+		
+		private void report(String outcome) {
+			if (ExecutorMetrics.isEnabled()) {
+				ExecutorMetrics.getInstance().saturated(target, outcome);
+			}
+		}
+		
+		public String getTarget() {
+			return target;
+		}
+		
+		private void release() {
+			semaphore.release();
+		}
+		
+		public int getMaxConcurrency() {
+			return maxConcurrency;
+		}
+		public int getMaxQueue() {
+			return maxQueue;
+		}
+		public int getInFlight() {
+			return maxConcurrency - semaphore.availablePermits();
+		}
+		public int getQueued() {
+			return queued.get();
+		}
+		public long getRejected() {
+			return rejected.get();
+		}
+		public long getShed() {
+			return shed.get();
+		}
+	}
+}
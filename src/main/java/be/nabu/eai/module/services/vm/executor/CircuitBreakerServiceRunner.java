@@ -0,0 +1,274 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Stops sending invokes to a target after a number of consecutive failures, after a while a single probe is let through to check if the target has recovered.
+ * Exceptions, timeouts and results that contain an exception count as failures, executor targets report their failures in the result.
+ * A probe that is cancelled or that does not complete within the maximum timeout counts as a failure and reopens the circuit.
+ * Every invoke fails with a timeout if it does not complete within an adaptive timeout that is based on the average latency of the target, whether or not someone waits for it.
+ * While the circuit is open, invokes can optionally fall back to local execution.
+ */
+public class CircuitBreakerServiceRunner implements ServiceRunner {
+
+	public static final String PROPERTY_FAILURES = "circuitFailures";
+	public static final String PROPERTY_OPEN_TIME = "circuitOpenTime";
+	public static final String PROPERTY_MIN_TIMEOUT = "circuitMinTimeout";
+	public static final String PROPERTY_MAX_TIMEOUT = "circuitMaxTimeout";
+	public static final String PROPERTY_FALLBACK = "circuitFallback";
+	
+	// how many times the average latency we wait before timing out
+	private static final double TIMEOUT_FACTOR = 4;
+	
+	public enum CircuitState {
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+	
+	private enum Admission {
+		ALLOWED,
+		PROBE,
+		REJECTED
+	}
+	
+	private static Logger logger = LoggerFactory.getLogger(CircuitBreakerServiceRunner.class);
+	private static ScheduledThreadPoolExecutor timeouts = newTimeouts();
+	private static Map<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+	
+	private static ScheduledThreadPoolExecutor newTimeouts() {
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, ExecutorThreads.newDaemonFactory("vm-circuit-timeouts"));
+		// most invokes complete in time, don't keep their timeouts around
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+	
+	public static Map<String, Circuit> getCircuits() {
+		return circuits;
+	}
+	
+	public static boolean isEnabled(Map<String, ?> properties) {
+		return ExecutorProperties.getInteger(properties, PROPERTY_FAILURES, 0) > 0;
+	}
+	
+	private String target;
+	private ServiceRunner runner, fallback;
+	private Circuit circuit;
+	private long openTime, minTimeout, maxTimeout;
+	private int failureThreshold;
+	
+	public CircuitBreakerServiceRunner(String target, ServiceRunner runner, ServiceRunner fallback, Map<String, ?> properties) {
+		this.target = target;
+		this.runner = runner;
+		this.openTime = ExecutorProperties.getLong(properties, PROPERTY_OPEN_TIME, 30000);
+		this.minTimeout = ExecutorProperties.getLong(properties, PROPERTY_MIN_TIMEOUT, 1000);
+		this.maxTimeout = ExecutorProperties.getLong(properties, PROPERTY_MAX_TIMEOUT, 60000);
+		this.fallback = "true".equals(ExecutorProperties.getString(properties, PROPERTY_FALLBACK, "false")) ? fallback : null;
+		this.failureThreshold = ExecutorProperties.getInteger(properties, PROPERTY_FAILURES, 0);
+		this.circuit = circuits.computeIfAbsent(target, new Function<String, Circuit>() {
+			@Override
+			public Circuit apply(String target) {
+				return new Circuit();
+			}
+		});
+	}
+	
+	@Override
+	public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+		Admission admission = circuit.allow(openTime, maxTimeout);
+		if (admission == Admission.REJECTED) {
+			if (fallback != null) {
+				return fallback.run(service, context, input, observers);
+			}
+			throw new RejectedExecutionException("The circuit for target '" + target + "' is open");
+		}
+		final long started = System.nanoTime();
+		final boolean probe = admission == Admission.PROBE;
+		final Future<ServiceResult> parent;
+		try {
+			parent = runner.run(service, context, input, observers);
+		}
+		catch (RuntimeException e) {
+			fail(e);
+			throw e;
+		}
+		if (parent == null) {
+			circuit.success(System.nanoTime() - started);
+			return null;
+		}
+		final DeadlineFuture future = new DeadlineFuture();
+		// only the first outcome counts: a timeout cancels the invoke, which would otherwise be reported as well
+		final AtomicBoolean counted = new AtomicBoolean();
+		// cancelling through the listening future reports the cancel immediately instead of at the next poll
+		future.parent = ExecutorFutures.whenComplete(parent, new BiConsumer<ServiceResult, Throwable>() {
+			@Override
+			public void accept(ServiceResult result, Throwable exception) {
+				if (counted.compareAndSet(false, true)) {
+					// executor targets report their failures in the result
+					if (exception == null && result != null && result.getException() != null) {
+						fail(result.getException());
+					}
+					else if (exception == null) {
+						circuit.success(System.nanoTime() - started);
+					}
+					// a cancelled invoke says nothing about the target, unless it is the probe: the circuit would stay half open
+					else if (probe || !(exception instanceof CancellationException)) {
+						fail(exception);
+					}
+				}
+				if (exception == null) {
+					future.complete(result);
+				}
+				else {
+					future.completeExceptionally(exception);
+				}
+			}
+		});
+		// the deadline is enforced on the future itself so it also applies to callers that never call get(), e.g. other runners that wait for a callback
+		final long timeout = circuit.getTimeout(minTimeout, maxTimeout);
+		if (!future.isDone()) {
+			final ScheduledFuture<?> scheduled = timeouts.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (!future.isDone() && counted.compareAndSet(false, true)) {
+						TimeoutException exception = new TimeoutException("The invoke on target '" + target + "' did not complete within " + timeout + "ms");
+						fail(exception);
+						future.completeExceptionally(exception);
+						future.parent.cancel(true);
+					}
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+			future.whenComplete(new BiConsumer<ServiceResult, Throwable>() {
+				@Override
+				public void accept(ServiceResult result, Throwable exception) {
+					scheduled.cancel(false);
+				}
+			});
+		}
+		return future;
+	}
+	
+	private void fail(Throwable exception) {
+		if (circuit.failure(failureThreshold)) {
+			logger.warn("Opening circuit for target '" + target + "' after " + circuit.getConsecutiveFailures() + " consecutive failures", exception);
+		}
+	}
+	
+	// cancelling the future cancels the invoke
+	private static class DeadlineFuture extends CompletableFuture<ServiceResult> {
+		private volatile Future<ServiceResult> parent;
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			parent.cancel(mayInterruptIfRunning);
+			return super.cancel(mayInterruptIfRunning);
+		}
+	}
+	
+	public static class Circuit {
+		private volatile CircuitState state = CircuitState.CLOSED;
+		private int consecutiveFailures;
+		private long openedAt, probedAt;
+		private boolean probing;
+		private volatile double latency;
+		
+		private synchronized Admission allow(long openTime, long probeTimeout) {
+			if (state == CircuitState.CLOSED) {
+				return Admission.ALLOWED;
+			}
+			// the probe did not report back in time, consider it failed
+			if (state == CircuitState.HALF_OPEN && System.currentTimeMillis() - probedAt >= probeTimeout) {
+				logger.warn("The probe for a half open circuit did not complete within " + probeTimeout + "ms, reopening the circuit");
+				consecutiveFailures++;
+				state = CircuitState.OPEN;
+				openedAt = System.currentTimeMillis();
+				probing = false;
+			}
+			// let a single probe through
+			if (state == CircuitState.OPEN && System.currentTimeMillis() - openedAt >= openTime) {
+				state = CircuitState.HALF_OPEN;
+				probing = true;
+				probedAt = System.currentTimeMillis();
+				return Admission.PROBE;
+			}
+			return Admission.REJECTED;
+		}
+		
+		private synchronized void success(long nanos) {
+			double millis = nanos / 1000000d;
+			latency = latency == 0 ? millis : (0.2 * millis) + (0.8 * latency);
+			consecutiveFailures = 0;
+			probing = false;
+			state = CircuitState.CLOSED;
+		}
+		
+		// returns true if this failure opened the circuit
+		private synchronized boolean failure(int failureThreshold) {
+			consecutiveFailures++;
+			if (state == CircuitState.HALF_OPEN || (state == CircuitState.CLOSED && consecutiveFailures >= failureThreshold)) {
+				state = CircuitState.OPEN;
+				openedAt = System.currentTimeMillis();
+				probing = false;
+				return true;
+			}
+			return false;
+		}
+		
+		private long getTimeout(long minTimeout, long maxTimeout) {
+			return latency == 0 ? maxTimeout : Math.max(minTimeout, Math.min(maxTimeout, (long) (latency * TIMEOUT_FACTOR)));
+		}
+		
+		public CircuitState getState() {
+			return state;
+		}
+		public synchronized int getConsecutiveFailures() {
+			return consecutiveFailures;
+		}
+		public double getLatency() {
+			return latency;
+		}
+		public synchronized boolean isProbing() {
+			return probing;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps keys to nodes using consistent hashing: each node is placed on the ring multiple times and a key belongs to the first node that follows it.
+ * When a node is added or removed, only the keys of that node move.
+ */
+public class ConsistentHashRing {
+	
+	private static final int REPLICAS = 128;
+	private static Map<String, ConsistentHashRing> rings = new ConcurrentHashMap<String, ConsistentHashRing>();
+	
+	// rings are cached per set of nodes
+	public static ConsistentHashRing getRing(Collection<String> nodes) {
+		String key = new TreeSet<String>(nodes).toString();
+		ConsistentHashRing ring = rings.get(key);
+		if (ring == null) {
+			ring = new ConsistentHashRing(nodes, REPLICAS);
+			rings.put(key, ring);
+		}
+		return ring;
+	}
+	
+	private TreeMap<Long, String> ring = new TreeMap<Long, String>();
+	private List<String> nodes;
+	
+	public ConsistentHashRing(Collection<String> nodes, int replicas) {
+		this.nodes = new ArrayList<String>(nodes);
+		for (String node : nodes) {
+			for (int i = 0; i < replicas; i++) {
+				ring.put(hash(node + "#" + i), node);
+			}
+		}
+	}
+	
+	public String get(String key) {
+		if (ring.isEmpty()) {
+			return null;
+		}
+		Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+		return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+	}
+	
+	public List<String> getNodes() {
+		return nodes;
+	}
+	
+	private static long hash(String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(Charset.forName("UTF-8")));
+			long hash = 0;
+			for (int i = 0; i < 8; i++) {
+				hash = (hash << 8) | (digest[i] & 0xff);
+			}
+			return hash;
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
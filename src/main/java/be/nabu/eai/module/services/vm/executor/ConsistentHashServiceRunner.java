@@ -0,0 +1,61 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.concurrent.Future;
+
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.services.vm.api.ExecutorProvider;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Routes the invoke to the target that owns the given key on the hash ring, invokes with the same key always end up on the same target as long as the candidates don't change.
+ * The candidates are runner artifacts (or other targets), not the members of the cluster: the affinity holds across servers only if every server has the same candidates.
+ */
+public class ConsistentHashServiceRunner implements ServiceRunner {
+
+	public static final String PROPERTY_KEY = "hashKey";
+	public static final String PROPERTY_CANDIDATES = "hashCandidates";
+	
+	private ExecutorProvider provider;
+	private ConsistentHashRing ring;
+	private String key;
+	
+	public ConsistentHashServiceRunner(ExecutorProvider provider, ConsistentHashRing ring, String key) {
+		this.provider = provider;
+		this.ring = ring;
+		this.key = key;
+	}
+	
+	@Override
+	public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+		if (key == null) {
+			throw new IllegalArgumentException("No hash key given to route the service");
+		}
+		String target = ring.get(key);
+		if (target == null) {
+			throw new IllegalStateException("No candidates available to run the service on, configure the property '" + PROPERTY_CANDIDATES + "' or add a service runner to the repository");
+		}
+		return provider.getRunner(target, null).run(service, context, input, observers);
+	}
+}
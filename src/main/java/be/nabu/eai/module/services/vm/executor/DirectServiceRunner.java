@@ -0,0 +1,60 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import be.nabu.libs.services.ServiceRuntime;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Runs the service on the calling thread and returns an already completed future.
+ * This is meant for runners that already provide the thread (e.g. a virtual thread), handing off to another runner would only park that thread.
+ * Invokes that are observed are handed to the fallback runner which knows how to notify the observers.
+ */
+public class DirectServiceRunner implements ServiceRunner {
+
+	private ServiceRunner fallback;
+	
+	public DirectServiceRunner(ServiceRunner fallback) {
+		this.fallback = fallback;
+	}
+	
+	@Override
+	public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+		if (fallback != null && observers != null && observers.length > 0) {
+			return fallback.run(service, context, input, observers);
+		}
+		ServiceResult result;
+		try {
+			result = new ExecutorServiceResult(new ServiceRuntime(service, context).run(input));
+		}
+		catch (ServiceException e) {
+			result = new ExecutorServiceResult(e);
+		}
+		return CompletableFuture.completedFuture(result);
+	}
+}
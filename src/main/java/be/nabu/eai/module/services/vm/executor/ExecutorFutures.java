@@ -0,0 +1,251 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.services.api.ServiceResult;
+
+public class ExecutorFutures {
+	
+	// the poll interval starts small for futures that are done quickly and backs off while nothing completes
+	private static final long MIN_POLL_INTERVAL = 1, MAX_POLL_INTERVAL = 10;
+	
+	private static Logger logger = LoggerFactory.getLogger(ExecutorFutures.class);
+	
+	// the listener is called exactly once when the future is done, a failed result (a result with an exception) is passed along as a result
+	// not all runners return a future that supports callbacks, those are polled by a shared thread until they are done, or until the result is retrieved or the future is cancelled, whichever comes first
+	public static Future<ServiceResult> whenComplete(Future<ServiceResult> future, final BiConsumer<ServiceResult, Throwable> listener) {
+		if (future == null) {
+			listener.accept(null, null);
+			return null;
+		}
+		else if (future instanceof CompletableFuture) {
+			final CompletableFuture<ServiceResult> source = (CompletableFuture<ServiceResult>) future;
+			final DependentFuture dependent = new DependentFuture(source);
+			source.whenComplete(new BiConsumer<ServiceResult, Throwable>() {
+				@Override
+				public void accept(ServiceResult result, Throwable exception) {
+					// a future that depends on another future reports the original exception wrapped
+					if (exception instanceof CompletionException && exception.getCause() != null) {
+						exception = exception.getCause();
+					}
+					try {
+						listener.accept(result, exception);
+					}
+					catch (RuntimeException e) {
+						logger.error("Listener failed for completed invoke", e);
+						if (exception == null) {
+							exception = e;
+						}
+					}
+					if (exception == null) {
+						dependent.complete(result);
+					}
+					else {
+						dependent.completeExceptionally(exception);
+					}
+				}
+			});
+			return dependent;
+		}
+		else {
+			ListeningFuture listening = new ListeningFuture(future, listener);
+			if (future.isDone()) {
+				listening.poll();
+			}
+			else {
+				Poller.register(listening);
+			}
+			return listening;
+		}
+	}
+	
+	// the amount of futures that are currently being polled
+	public static int getPolled() {
+		return Poller.polled;
+	}
+	
+	private static class Poller implements Runnable {
+		
+		private static BlockingQueue<ListeningFuture> registered = new LinkedBlockingQueue<ListeningFuture>();
+		private static volatile int polled;
+		
+		static {
+			ExecutorThreads.newDaemonFactory("vm-executor-poller").newThread(new Poller()).start();
+		}
+		
+		private static void register(ListeningFuture future) {
+			registered.add(future);
+		}
+		
+		@Override
+		public void run() {
+			List<ListeningFuture> pending = new ArrayList<ListeningFuture>();
+			long interval = MIN_POLL_INTERVAL;
+			while (true) {
+				try {
+					if (pending.isEmpty()) {
+						pending.add(registered.take());
+						interval = MIN_POLL_INTERVAL;
+					}
+					registered.drainTo(pending);
+					boolean completed = false;
+					Iterator<ListeningFuture> iterator = pending.iterator();
+					while (iterator.hasNext()) {
+						ListeningFuture future = iterator.next();
+						// the result may already have been retrieved
+						if (future.notified.get()) {
+							iterator.remove();
+						}
+						else if (future.parent.isDone()) {
+							iterator.remove();
+							completed = true;
+							try {
+								future.poll();
+							}
+							catch (RuntimeException e) {
+								logger.error("Listener failed for completed invoke", e);
+							}
+						}
+					}
+					polled = pending.size();
+					interval = completed ? MIN_POLL_INTERVAL : Math.min(interval * 2, MAX_POLL_INTERVAL);
+					if (!pending.isEmpty()) {
+						Thread.sleep(interval);
+					}
+				}
+				catch (InterruptedException e) {
+					// the poller is shared, keep going
+				}
+			}
+		}
+	}
+	
+	// the plain dependent of a completable future does not cancel the future it depends on
+	private static class DependentFuture extends CompletableFuture<ServiceResult> {
+		private CompletableFuture<ServiceResult> source;
+		
+		public DependentFuture(CompletableFuture<ServiceResult> source) {
+			this.source = source;
+		}
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			// the listener is notified of the cancel before we return
+			boolean cancelled = source.cancel(mayInterruptIfRunning);
+			return super.cancel(mayInterruptIfRunning) || cancelled;
+		}
+	}
+	
+	private static class ListeningFuture implements Future<ServiceResult> {
+		private Future<ServiceResult> parent;
+		private BiConsumer<ServiceResult, Throwable> listener;
+		private AtomicBoolean notified = new AtomicBoolean();
+		
+		public ListeningFuture(Future<ServiceResult> parent, BiConsumer<ServiceResult, Throwable> listener) {
+			this.parent = parent;
+			this.listener = listener;
+		}
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = parent.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				notify(null, new CancellationException());
+			}
+			return cancelled;
+		}
+		@Override
+		public boolean isCancelled() {
+			return parent.isCancelled();
+		}
+		@Override
+		public boolean isDone() {
+			return parent.isDone();
+		}
+		@Override
+		public ServiceResult get() throws InterruptedException, ExecutionException {
+			try {
+				ServiceResult result = parent.get();
+				notify(result, null);
+				return result;
+			}
+			catch (ExecutionException e) {
+				notify(null, e.getCause());
+				throw e;
+			}
+			catch (CancellationException e) {
+				notify(null, e);
+				throw e;
+			}
+		}
+		@Override
+		public ServiceResult get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			try {
+				ServiceResult result = parent.get(timeout, unit);
+				notify(result, null);
+				return result;
+			}
+			catch (ExecutionException e) {
+				notify(null, e.getCause());
+				throw e;
+			}
+			catch (CancellationException e) {
+				notify(null, e);
+				throw e;
+			}
+		}
+		// only called once the parent is done, so this does not block
+		private void poll() {
+			try {
+				notify(parent.get(), null);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				notify(null, e);
+			}
+			catch (ExecutionException e) {
+				notify(null, e.getCause());
+			}
+			catch (RuntimeException e) {
+				notify(null, e);
+			}
+		}
+		private void notify(ServiceResult result, Throwable exception) {
+			if (notified.compareAndSet(false, true)) {
+				listener.accept(result, exception);
+			}
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps invoke statistics per target and per target and service id, additional sinks can be registered to push the same events to an external system.
+ */
+public class ExecutorMetrics implements ExecutorMetricsSink {
+
+	private static ExecutorMetrics instance = new ExecutorMetrics();
+	private static final Function<String, InvokeStatistics> NEW_STATISTICS = new Function<String, InvokeStatistics>() {
+		@Override
+		public InvokeStatistics apply(String key) {
+			return new InvokeStatistics();
+		}
+	};
+	
+	public static ExecutorMetrics getInstance() {
+		return instance;
+	}
+	
+	// opt-in with "vm.executor.metrics", runners that return futures without callbacks have to be polled to know when an invoke is done
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(System.getProperty("vm.executor.metrics", "false"));
+	}
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private List<ExecutorMetricsSink> sinks = new CopyOnWriteArrayList<ExecutorMetricsSink>();
+	private Map<String, InvokeStatistics> targets = new ConcurrentHashMap<String, InvokeStatistics>();
+	private Map<String, Map<String, InvokeStatistics>> services = new ConcurrentHashMap<String, Map<String, InvokeStatistics>>();
+	
+	public void addSink(ExecutorMetricsSink sink) {
+		sinks.add(sink);
+	}
+	
+	public void removeSink(ExecutorMetricsSink sink) {
+		sinks.remove(sink);
+	}
+	
+	@Override
+	public void started(String target, String serviceId) {
+		getStatistics(target).start();
+		getStatistics(target, serviceId).start();
+		for (ExecutorMetricsSink sink : sinks) {
+			try {
+				sink.started(target, serviceId);
+			}
+			catch (Exception e) {
+				logger.warn("Metrics sink failed", e);
+			}
+		}
+	}
+
+	@Override
+	public void stopped(String target, String serviceId, long nanos, Throwable exception) {
+		getStatistics(target).stop(nanos, exception != null);
+		getStatistics(target, serviceId).stop(nanos, exception != null);
+		for (ExecutorMetricsSink sink : sinks) {
+			try {
+				sink.stopped(target, serviceId, nanos, exception);
+			}
+			catch (Exception e) {
+				logger.warn("Metrics sink failed", e);
+			}
+		}
+	}
+	
+	@Override
+	public void saturated(String target, String outcome) {
+		getStatistics(target).saturated(outcome);
+		for (ExecutorMetricsSink sink : sinks) {
+			try {
+				sink.saturated(target, outcome);
+			}
+			catch (Exception e) {
+				logger.warn("Metrics sink failed", e);
+			}
+		}
+	}
+	
+	public InvokeStatistics getStatistics(String target) {
+		return targets.computeIfAbsent(target, NEW_STATISTICS);
+	}
+	
+	public InvokeStatistics getStatistics(String target, String serviceId) {
+		return services.computeIfAbsent(target, new Function<String, Map<String, InvokeStatistics>>() {
+			@Override
+			public Map<String, InvokeStatistics> apply(String target) {
+				return new ConcurrentHashMap<String, InvokeStatistics>();
+			}
+		}).computeIfAbsent(serviceId, NEW_STATISTICS);
+	}
+	
+	public List<String> getTargets() {
+		return new ArrayList<String>(targets.keySet());
+	}
+	
+	public List<String> getServices(String target) {
+		Map<String, InvokeStatistics> map = services.get(target);
+		return map == null ? new ArrayList<String>() : new ArrayList<String>(map.keySet());
+	}
+	
+	public void reset() {
+		targets.clear();
+		services.clear();
+	}
+	
+	/**
+	 * The latencies are kept in a histogram with power of two buckets (in microseconds), percentiles are reported as the upper bound of the bucket they fall in.
+	 */
+	public static class InvokeStatistics {
+		
+		private static final int BUCKETS = 40;
+		
+		private AtomicLong invokes = new AtomicLong(), errors = new AtomicLong(), queued = new AtomicLong(), rejected = new AtomicLong(), shed = new AtomicLong();
+		private AtomicInteger inFlight = new AtomicInteger();
+		private AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+		
+		private void start() {
+			invokes.incrementAndGet();
+			inFlight.incrementAndGet();
+		}
+		
+		private void stop(long nanos, boolean failed) {
+			inFlight.decrementAndGet();
+			if (failed) {
+				errors.incrementAndGet();
+			}
+			long micros = Math.max(1, nanos / 1000);
+			histogram.incrementAndGet(Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros)));
+		}
+		
+		private void saturated(String outcome) {
+			if ("queued".equals(outcome)) {
+				queued.incrementAndGet();
+			}
+			else if ("rejected".equals(outcome)) {
+				rejected.incrementAndGet();
+			}
+			else if ("shed".equals(outcome)) {
+				shed.incrementAndGet();
+			}
+		}
+		
+		// the percentile (e.g. 0.99) of the latency in milliseconds
+		public double getPercentile(double percentile) {
+			long total = 0;
+			long [] counts = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = histogram.get(i);
+				total += counts[i];
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long threshold = (long) Math.ceil(total * percentile);
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				cumulative += counts[i];
+				if (cumulative >= threshold) {
+					return (1L << (i + 1)) / 1000d;
+				}
+			}
+			return (1L << BUCKETS) / 1000d;
+		}
+		
+		public double getP50() {
+			return getPercentile(0.5);
+		}
+		public double getP99() {
+			return getPercentile(0.99);
+		}
+		public long getInvokes() {
+			return invokes.get();
+		}
+		public long getErrors() {
+			return errors.get();
+		}
+		public int getInFlight() {
+			return inFlight.get();
+		}
+		// the amount of invokes that had to wait for a slot on a bounded target
+		public long getQueued() {
+			return queued.get();
+		}
+		public long getRejected() {
+			return rejected.get();
+		}
+		public long getShed() {
+			return shed.get();
+		}
+	}
+}
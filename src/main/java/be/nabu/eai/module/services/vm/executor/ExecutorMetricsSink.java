@@ -0,0 +1,33 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+/**
+ * Receives the invokes that are dispatched through the executor targets.
+ * Sinks are called on the dispatching thread or the thread that completes the invoke, they should not block.
+ */
+public interface ExecutorMetricsSink {
+	public void started(String target, String serviceId);
+	// the latency is measured from the moment the invoke is handed to the runner until its future is done
+	public void stopped(String target, String serviceId, long nanos, Throwable exception);
+	// a bounded target had no free slot for the invoke, the outcome is "queued", "rejected" or "shed"
+	public default void saturated(String target, String outcome) {
+		// not all sinks care
+	}
+}
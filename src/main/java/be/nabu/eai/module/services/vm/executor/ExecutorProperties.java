@@ -0,0 +1,122 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// helpers to read the (evaluated) target properties that are passed along to the runner
+public class ExecutorProperties {
+	
+	// properties that configure how a target is run, these are not passed along to executor services
+	private static Set<String> control = new HashSet<String>(Arrays.asList(
+		BatchingServiceRunner.PROPERTY_SIZE, 
+		BatchingServiceRunner.PROPERTY_WINDOW,
+		AsyncExecutorServiceRunner.PROPERTY_TIMEOUT,
+		VirtualThreadServiceRunner.PROPERTY_CONCURRENCY,
+		BoundedServiceRunner.PROPERTY_CONCURRENCY,
+		BoundedServiceRunner.PROPERTY_QUEUE,
+		BoundedServiceRunner.PROPERTY_POLICY,
+		CircuitBreakerServiceRunner.PROPERTY_FAILURES,
+		CircuitBreakerServiceRunner.PROPERTY_OPEN_TIME,
+		CircuitBreakerServiceRunner.PROPERTY_MIN_TIMEOUT,
+		CircuitBreakerServiceRunner.PROPERTY_MAX_TIMEOUT,
+		CircuitBreakerServiceRunner.PROPERTY_FALLBACK,
+		LocalFirstServiceRunner.PROPERTY_LOCAL_FIRST,
+		PriorityServiceRunner.PROPERTY_PRIORITY,
+		RetryServiceRunner.PROPERTY_ATTEMPTS,
+		RetryServiceRunner.PROPERTY_BACKOFF,
+		RetryServiceRunner.PROPERTY_MAX_BACKOFF,
+		RetryServiceRunner.PROPERTY_EXCEPTIONS
+	));
+	
+	public static boolean isControl(String name) {
+		return control.contains(name);
+	}
+	
+	public static Map<String, Object> withoutControl(Map<String, ?> properties) {
+		Map<String, Object> result = new HashMap<String, Object>();
+		if (properties != null) {
+			for (Map.Entry<String, ?> entry : properties.entrySet()) {
+				if (!isControl(entry.getKey())) {
+					result.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		return result;
+	}
+	
+	public static String getString(Map<String, ?> properties, String name, String defaultValue) {
+		Object value = properties == null ? null : properties.get(name);
+		return value == null || value.toString().trim().isEmpty() ? defaultValue : value.toString().trim();
+	}
+	
+	public static int getInteger(Map<String, ?> properties, String name, int defaultValue) {
+		Object value = properties == null ? null : properties.get(name);
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+		else if (value != null && !value.toString().trim().isEmpty()) {
+			return Integer.parseInt(value.toString().trim());
+		}
+		return defaultValue;
+	}
+	
+	public static long getLong(Map<String, ?> properties, String name, long defaultValue) {
+		Object value = properties == null ? null : properties.get(name);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		else if (value != null && !value.toString().trim().isEmpty()) {
+			return Long.parseLong(value.toString().trim());
+		}
+		return defaultValue;
+	}
+	
+	// a target can carry properties in a query string, e.g. "$any?priority=low", this returns the target without it
+	public static String getTarget(String target) {
+		int index = target == null ? -1 : target.indexOf('?');
+		return index < 0 ? target : target.substring(0, index);
+	}
+	
+	// merges the properties in the query string of the target with the given properties, the latter take precedence
+	public static Map<String, Object> withQuery(String target, Map<String, ?> properties) {
+		Map<String, Object> result = new HashMap<String, Object>();
+		int index = target == null ? -1 : target.indexOf('?');
+		if (index >= 0) {
+			for (String part : target.substring(index + 1).split("&")) {
+				int separator = part.indexOf('=');
+				if (separator > 0) {
+					result.put(part.substring(0, separator).trim(), part.substring(separator + 1).trim());
+				}
+			}
+		}
+		if (properties != null) {
+			for (Map.Entry<String, ?> entry : properties.entrySet()) {
+				if (entry.getValue() != null) {
+					result.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,210 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.eai.module.services.vm.api.AsyncServiceExecutor;
+import be.nabu.eai.module.services.vm.api.BatchServiceExecutor;
+import be.nabu.eai.module.services.vm.api.ServiceExecutor;
+import be.nabu.eai.repository.api.Repository;
+import be.nabu.eai.repository.events.NodeEvent;
+import be.nabu.libs.artifacts.api.Artifact;
+import be.nabu.libs.events.api.EventHandler;
+import be.nabu.libs.services.DefinedServiceInterfaceResolverFactory;
+import be.nabu.libs.services.api.DefinedService;
+import be.nabu.libs.services.api.DefinedServiceInterface;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.services.pojo.POJOUtils;
+
+/**
+ * Keeps track of the runners and the services that implement one of the executor interfaces so the available targets can be listed without scanning the repository.
+ * The first listing scans the repository, afterwards artifacts that are loaded, saved, unloaded or deleted are checked individually.
+ * As a safety net the registry is rescanned in the background once it is older than "vm.executor.targets.ttl" (milliseconds, defaults to 5 minutes), the rescan does not undo checks that happened while it was running.
+ */
+public class ExecutorTargetRegistry {
+	
+	private static Map<Repository, ExecutorTargetRegistry> registries = Collections.synchronizedMap(new WeakHashMap<Repository, ExecutorTargetRegistry>());
+	private static final long TTL = Long.parseLong(System.getProperty("vm.executor.targets.ttl", "300000"));
+	
+	public static ExecutorTargetRegistry getRegistry(Repository repository) {
+		synchronized(registries) {
+			ExecutorTargetRegistry registry = registries.get(repository);
+			if (registry == null) {
+				registry = new ExecutorTargetRegistry(repository);
+				registries.put(repository, registry);
+			}
+			return registry;
+		}
+	}
+	
+	// the artifact was (re)loaded or saved and has to be checked again on the next listing
+	public static void changed(Repository repository, String id) {
+		ExecutorTargetRegistry registry = registries.get(repository);
+		// if no one has listed the targets yet, there is nothing to keep up to date
+		if (registry != null) {
+			registry.pending.add(id);
+		}
+	}
+	
+	public static boolean isExecutor(DefinedService service) {
+		return POJOUtils.isImplementation(service, getInterface(ServiceExecutor.class.getName() + ".execute"))
+			|| POJOUtils.isImplementation(service, getInterface(BatchServiceExecutor.class.getName() + ".execute"))
+			|| POJOUtils.isImplementation(service, getInterface(AsyncServiceExecutor.class.getName() + ".submit"));
+	}
+	
+	private static DefinedServiceInterface getInterface(String id) {
+		return DefinedServiceInterfaceResolverFactory.getInstance().getResolver().resolve(id);
+	}
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private Repository repository;
+	private volatile boolean initialized;
+	private Set<String> runners = new ConcurrentSkipListSet<String>(), executors = new ConcurrentSkipListSet<String>();
+	private Set<String> pending = ConcurrentHashMap.newKeySet();
+	// when an artifact was last checked individually, a scan that started before that does not overwrite it
+	private Map<String, Long> checked = new ConcurrentHashMap<String, Long>();
+	private volatile long scanned;
+	private AtomicBoolean scanning = new AtomicBoolean();
+	
+	private ExecutorTargetRegistry(Repository repository) {
+		this.repository = repository;
+		// artifacts that are unloaded or deleted never pass through this module
+		try {
+			repository.getEventDispatcher().subscribe(NodeEvent.class, new EventHandler<NodeEvent, Void>() {
+				@Override
+				public Void handle(NodeEvent event) {
+					if (event.isDone()) {
+						pending.add(event.getId());
+					}
+					return null;
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			logger.warn("Could not subscribe to node events, unloaded targets are only dropped on the next scan", e);
+		}
+	}
+	
+	public List<String> getRunners() {
+		refresh();
+		return Collections.unmodifiableList(new ArrayList<String>(runners));
+	}
+	
+	public List<String> getExecutors() {
+		refresh();
+		return new ArrayList<String>(executors);
+	}
+	
+	private void refresh() {
+		if (!initialized) {
+			synchronized(this) {
+				if (!initialized) {
+					scan();
+					initialized = true;
+				}
+			}
+		}
+		else if (System.currentTimeMillis() - scanned > TTL && scanning.compareAndSet(false, true)) {
+			ExecutorThreads.newDaemonFactory("vm-executor-targets").newThread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						scan();
+					}
+					catch (Exception e) {
+						logger.error("Could not refresh the executor targets", e);
+					}
+					finally {
+						scanning.set(false);
+					}
+				}
+			}).start();
+		}
+		if (!pending.isEmpty()) {
+			for (String id : new ArrayList<String>(pending)) {
+				pending.remove(id);
+				checked.put(id, System.currentTimeMillis());
+				// an unloaded or deleted artifact no longer resolves
+				Artifact artifact = repository.resolve(id);
+				update(runners, id, artifact instanceof ServiceRunner);
+				update(executors, id, artifact instanceof DefinedService && isExecutor((DefinedService) artifact));
+			}
+		}
+	}
+	
+	private static void update(Set<String> ids, String id, boolean present) {
+		if (present) {
+			ids.add(id);
+		}
+		else {
+			ids.remove(id);
+		}
+	}
+	
+	// the scan is merged into the current targets, artifacts that were checked individually while it was running keep their state
+	private void scan() {
+		long started = System.currentTimeMillis();
+		Set<String> runners = new HashSet<String>();
+		for (ServiceRunner runner : repository.getArtifacts(ServiceRunner.class)) {
+			if (runner instanceof Artifact) {
+				runners.add(((Artifact) runner).getId());
+			}
+		}
+		Set<String> executors = new HashSet<String>();
+		for (DefinedService service : repository.getArtifacts(DefinedService.class)) {
+			if (isExecutor(service)) {
+				executors.add(service.getId());
+			}
+		}
+		merge(this.runners, runners, started);
+		merge(this.executors, executors, started);
+		// older checks no longer matter, the scan is at least as recent
+		for (Map.Entry<String, Long> entry : new ArrayList<Map.Entry<String, Long>>(checked.entrySet())) {
+			if (entry.getValue() < started) {
+				checked.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		this.scanned = System.currentTimeMillis();
+		logger.debug("Scanned executor targets in " + (scanned - started) + "ms: " + runners.size() + " runners, " + executors.size() + " executors");
+	}
+	
+	private void merge(Set<String> current, Set<String> found, long started) {
+		Set<String> ids = new HashSet<String>(current);
+		ids.addAll(found);
+		for (String id : ids) {
+			Long checked = this.checked.get(id);
+			if (checked == null || checked < started) {
+				update(current, id, found.contains(id));
+			}
+		}
+	}
+}
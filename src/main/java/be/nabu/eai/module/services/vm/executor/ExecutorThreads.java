@@ -0,0 +1,76 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+// the threads used by the runners and the loaders, none of them should keep the server from shutting down
+public class ExecutorThreads {
+	
+	// daemon platform threads named "<name>-<counter>"
+	public static ThreadFactory newDaemonFactory(final String name) {
+		return new ThreadFactory() {
+			private AtomicLong counter = new AtomicLong();
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+	
+	// virtual threads if the runtime supports them (they are always daemon threads), daemon platform threads otherwise
+	public static ThreadFactory newVirtualFactory(String name) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class, long.class).invoke(builder, name + "-", 1l);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		}
+		catch (Exception e) {
+			return newDaemonFactory(name);
+		}
+	}
+	
+	// starts a new virtual thread per task if the runtime supports them, a cached pool of daemon platform threads otherwise
+	public static ExecutorService newThreadPerTaskExecutor(String name) {
+		if (isVirtualSupported()) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, newVirtualFactory(name));
+			}
+			catch (Exception e) {
+				// fall through
+			}
+		}
+		return Executors.newCachedThreadPool(newDaemonFactory(name));
+	}
+	
+	public static boolean isVirtualSupported() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		}
+		catch (Exception e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.services.vm.api.ExecutorProvider;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Routes each invoke to the candidate target with the fewest invokes in flight, ties are broken on the average latency.
+ * The load is as observed by this server.
+ */
+public class LeastLoadedServiceRunner implements ServiceRunner {
+
+	public static final String PROPERTY_CANDIDATES = "loadCandidates";
+	
+	private ExecutorProvider provider;
+	private List<String> candidates;
+	
+	public LeastLoadedServiceRunner(ExecutorProvider provider, List<String> candidates) {
+		this.provider = provider;
+		this.candidates = candidates;
+	}
+	
+	@Override
+	public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+		String selected = null;
+		TargetLoad selectedLoad = null;
+		for (String candidate : candidates) {
+			TargetLoad load = TargetLoad.getLoad(candidate);
+			if (selectedLoad == null || load.isLessLoadedThan(selectedLoad)) {
+				selected = candidate;
+				selectedLoad = load;
+			}
+		}
+		if (selected == null) {
+			throw new IllegalStateException("No candidates available to run the service on");
+		}
+		final TargetLoad load = selectedLoad;
+		final long started = System.nanoTime();
+		load.start();
+		try {
+			return ExecutorFutures.whenComplete(provider.getRunner(selected, null).run(service, context, input, observers), new BiConsumer<ServiceResult, Throwable>() {
+				@Override
+				public void accept(ServiceResult result, Throwable exception) {
+					load.stop(System.nanoTime() - started);
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			load.stop(System.nanoTime() - started);
+			throw e;
+		}
+	}
+}
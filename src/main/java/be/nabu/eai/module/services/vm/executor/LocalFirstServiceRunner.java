@@ -0,0 +1,128 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Runs an invoke that may run anywhere in the cluster on this server, as long as this server is not too busy. This avoids marshalling the input and the network hop.
+ * The server qualifies if less than the configured amount of such invokes are running locally and the system load average does not exceed the amount of processors.
+ * Otherwise the invoke is dispatched to the cluster as usual.
+ * The latency saved is estimated per call as the average remote dispatch time minus the time it took to hand the invoke off locally.
+ */
+public class LocalFirstServiceRunner implements ServiceRunner {
+
+	public static final String PROPERTY_LOCAL_FIRST = "localFirst";
+	
+	private static AtomicInteger localInFlight = new AtomicInteger();
+	private static AtomicLong local = new AtomicLong(), remote = new AtomicLong(), saved = new AtomicLong();
+	// the average time it takes to hand an invoke off to the cluster, in nanoseconds
+	private static volatile double remoteLatency;
+	
+	public static boolean isEnabled(Map<String, ?> properties) {
+		return ExecutorProperties.getInteger(properties, PROPERTY_LOCAL_FIRST, 0) > 0;
+	}
+	
+	private ServiceRunner remoteRunner, localRunner;
+	private int threshold;
+	
+	public LocalFirstServiceRunner(ServiceRunner remoteRunner, ServiceRunner localRunner, Map<String, ?> properties) {
+		this.remoteRunner = remoteRunner;
+		// the local invoke is still asynchronous, the caller does not wait for it
+		this.localRunner = new VirtualThreadServiceRunner(new DirectServiceRunner(localRunner), null);
+		this.threshold = ExecutorProperties.getInteger(properties, PROPERTY_LOCAL_FIRST, 0);
+	}
+	
+	@Override
+	public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+		long started = System.nanoTime();
+		boolean healthy = isHealthy();
+		boolean acquired = healthy && localInFlight.incrementAndGet() <= threshold;
+		if (acquired) {
+			Future<ServiceResult> future;
+			try {
+				future = ExecutorFutures.whenComplete(localRunner.run(service, context, input, observers), new BiConsumer<ServiceResult, Throwable>() {
+					@Override
+					public void accept(ServiceResult result, Throwable exception) {
+						localInFlight.decrementAndGet();
+					}
+				});
+			}
+			catch (RuntimeException e) {
+				localInFlight.decrementAndGet();
+				throw e;
+			}
+			long handedOff = System.nanoTime() - started;
+			local.incrementAndGet();
+			if (remoteLatency > handedOff) {
+				saved.addAndGet((long) remoteLatency - handedOff);
+			}
+			return future;
+		}
+		else {
+			// only undo the increment if there was one, an unhealthy server never counted the invoke
+			if (healthy) {
+				localInFlight.decrementAndGet();
+			}
+			Future<ServiceResult> future = remoteRunner.run(service, context, input, observers);
+			long nanos = System.nanoTime() - started;
+			synchronized(LocalFirstServiceRunner.class) {
+				remoteLatency = remoteLatency == 0 ? nanos : (0.2 * nanos) + (0.8 * remoteLatency);
+			}
+			remote.incrementAndGet();
+			return future;
+		}
+	}
+	
+	private static boolean isHealthy() {
+		double load = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+		// a negative value means the load average is not available
+		return load < 0 || load <= Runtime.getRuntime().availableProcessors();
+	}
+	
+	public static long getLocal() {
+		return local.get();
+	}
+	public static long getRemote() {
+		return remote.get();
+	}
+	public static int getLocalInFlight() {
+		return localInFlight.get();
+	}
+	// the total latency saved by running locally in milliseconds
+	public static double getSaved() {
+		return saved.get() / 1000000d;
+	}
+	public static double getSavedPerCall() {
+		long count = local.get();
+		return count == 0 ? 0 : getSaved() / count;
+	}
+}
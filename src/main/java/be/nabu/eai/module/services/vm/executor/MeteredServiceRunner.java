@@ -0,0 +1,72 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import be.nabu.libs.services.api.DefinedService;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Reports every invoke on a target to the executor metrics. Invokes that are rejected by the runner and results that contain an exception count as errors.
+ */
+public class MeteredServiceRunner implements ServiceRunner {
+
+	private String target;
+	private ServiceRunner runner;
+	
+	public MeteredServiceRunner(String target, ServiceRunner runner) {
+		this.target = target;
+		this.runner = runner;
+	}
+	
+	@Override
+	public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+		final String serviceId = service instanceof DefinedService ? ((DefinedService) service).getId() : "$anonymous";
+		final ExecutorMetrics metrics = ExecutorMetrics.getInstance();
+		final long started = System.nanoTime();
+		metrics.started(target, serviceId);
+		try {
+			return ExecutorFutures.whenComplete(runner.run(service, context, input, observers), new BiConsumer<ServiceResult, Throwable>() {
+				@Override
+				public void accept(ServiceResult result, Throwable exception) {
+					if (exception == null && result != null && result.getException() != null) {
+						exception = result.getException();
+					}
+					metrics.stopped(target, serviceId, System.nanoTime() - started, exception instanceof CancellationException ? null : exception);
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			metrics.stopped(target, serviceId, System.nanoTime() - started, e);
+			throw e;
+		}
+	}
+	
+	public String getTarget() {
+		return target;
+	}
+}
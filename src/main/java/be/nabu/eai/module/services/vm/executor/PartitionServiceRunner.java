@@ -0,0 +1,210 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.Element;
+
+/**
+ * Splits a list in the input into partitions, runs the service for each partition in parallel on the given runner and merges the outputs in order.
+ * Lists in the output are concatenated, for other fields the first non-null value is kept.
+ * The partitions are submitted from virtual threads (if supported), they only leave this server if the given runner does so, the results are merged when the last partition completes.
+ * When a partition fails, the partitions that are still running are cancelled and the failure is returned.
+ */
+public class PartitionServiceRunner implements ServiceRunner {
+
+	public static final String PROPERTY_FIELD = "partitionField";
+	public static final String PROPERTY_PARTITIONS = "partitionCount";
+	
+	private ServiceRunner runner;
+	private String field;
+	private int partitions;
+	
+	public PartitionServiceRunner(ServiceRunner runner, Map<String, ?> properties) {
+		this.runner = runner;
+		this.field = ExecutorProperties.getString(properties, PROPERTY_FIELD, null);
+		this.partitions = ExecutorProperties.getInteger(properties, PROPERTY_PARTITIONS, Runtime.getRuntime().availableProcessors());
+	}
+	
+	@Override
+	public Future<ServiceResult> run(final Service service, final ExecutionContext context, ComplexContent input, final ServiceRunnableObserver...observers) {
+		String field = this.field == null ? getFirstList(input) : this.field;
+		Object value = field == null || input == null ? null : input.get(field);
+		// nothing to partition
+		if (!(value instanceof Collection) || partitions <= 1 || ((Collection<?>) value).size() <= 1) {
+			return runner.run(service, context, input, observers);
+		}
+		List<?> list = new ArrayList<Object>((Collection<?>) value);
+		int size = (int) Math.ceil((double) list.size() / Math.min(partitions, list.size()));
+		// partitions may fail while others are still being submitted
+		final List<Partition> running = new CopyOnWriteArrayList<Partition>();
+		final List<CompletableFuture<ServiceResult>> futures = new ArrayList<CompletableFuture<ServiceResult>>();
+		// the first partition that fails, either its result or the exception it threw
+		final AtomicReference<Object> failure = new AtomicReference<Object>();
+		for (int i = 0; i < list.size(); i += size) {
+			final ComplexContent partitionInput = copy(service, input);
+			partitionInput.set(field, new ArrayList<Object>(list.subList(i, Math.min(i + size, list.size()))));
+			final Partition partition = new Partition();
+			partition.future = CompletableFuture.supplyAsync(new Supplier<ServiceResult>() {
+				@Override
+				public ServiceResult get() {
+					// another partition already failed
+					if (failure.get() != null) {
+						throw new CancellationException();
+					}
+					try {
+						partition.running = runner.run(service, context, partitionInput, observers);
+						return partition.running == null ? null : partition.running.get();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new CompletionException(e);
+					}
+					catch (ExecutionException e) {
+						throw new CompletionException(e.getCause());
+					}
+				}
+			}, VirtualThreadServiceRunner.getExecutor());
+			running.add(partition);
+			futures.add(partition.future.whenComplete(new BiConsumer<ServiceResult, Throwable>() {
+				@Override
+				public void accept(ServiceResult result, Throwable exception) {
+					if (exception instanceof CompletionException && exception.getCause() != null) {
+						exception = exception.getCause();
+					}
+					Object failed = exception != null ? exception : (result != null && result.getException() != null ? result : null);
+					// the first failed partition fails the whole run, there is no point in finishing the others
+					if (failed != null && !(failed instanceof CancellationException) && failure.compareAndSet(null, failed)) {
+						for (Partition other : running) {
+							other.cancel();
+						}
+					}
+				}
+			}));
+		}
+		// no thread waits for the partitions, the last one to complete merges the results
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).handle(new BiFunction<Void, Throwable, ServiceResult>() {
+			@Override
+			public ServiceResult apply(Void result, Throwable exception) {
+				Object failed = failure.get();
+				if (failed instanceof ServiceResult) {
+					return (ServiceResult) failed;
+				}
+				else if (failed != null) {
+					throw new CompletionException((Throwable) failed);
+				}
+				return gather(service, futures);
+			}
+		});
+	}
+	
+	private static class Partition {
+		private volatile CompletableFuture<ServiceResult> future;
+		private volatile Future<ServiceResult> running;
+		
+		private void cancel() {
+			if (!future.isDone()) {
+				Future<ServiceResult> running = this.running;
+				if (running != null) {
+					running.cancel(true);
+				}
+				future.cancel(true);
+			}
+		}
+	}
+	
+	private ServiceResult gather(Service service, List<CompletableFuture<ServiceResult>> futures) {
+		ComplexContent output = service.getServiceInterface().getOutputDefinition().newInstance();
+		Map<String, List<Object>> lists = new LinkedHashMap<String, List<Object>>();
+		try {
+			for (CompletableFuture<ServiceResult> future : futures) {
+				ServiceResult result = future.get();
+				if (result == null) {
+					continue;
+				}
+				else if (result.getOutput() != null) {
+					for (Element<?> child : TypeUtils.getAllChildren(output.getType())) {
+						Object value = result.getOutput().get(child.getName());
+						if (value instanceof Collection) {
+							if (!lists.containsKey(child.getName())) {
+								lists.put(child.getName(), new ArrayList<Object>());
+							}
+							lists.get(child.getName()).addAll((Collection<?>) value);
+						}
+						else if (value != null && output.get(child.getName()) == null) {
+							output.set(child.getName(), value);
+						}
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		for (Map.Entry<String, List<Object>> list : lists.entrySet()) {
+			output.set(list.getKey(), list.getValue());
+		}
+		return new ExecutorServiceResult(output);
+	}
+	
+	private static ComplexContent copy(Service service, ComplexContent input) {
+		ComplexContent copy = service.getServiceInterface().getInputDefinition().newInstance();
+		for (Element<?> child : TypeUtils.getAllChildren(input.getType())) {
+			copy.set(child.getName(), input.get(child.getName()));
+		}
+		return copy;
+	}
+	
+	private static String getFirstList(ComplexContent input) {
+		if (input != null) {
+			for (Element<?> child : TypeUtils.getAllChildren(input.getType())) {
+				if (input.get(child.getName()) instanceof Collection) {
+					return child.getName();
+				}
+			}
+		}
+		return null;
+	}
+}
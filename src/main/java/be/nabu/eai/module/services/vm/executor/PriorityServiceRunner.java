@@ -0,0 +1,253 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Limits the amount of low priority invokes in flight so they can not crowd out interactive work.
+ * Only low priority invokes are throttled: high and normal priority invokes (an invoke without a priority is normal) are dispatched directly, there is no difference between the two.
+ * Low priority invokes wait in a queue that is served in order of arrival, an invoke holds one of a limited amount of slots ("vm.executor.priority.workers", defaults to the amount of processors) until its result is available, also for targets that run asynchronously.
+ * The workers only hand the invoke off, they do not wait for the result. Invokes done from within a low priority invoke while it is handed off are dispatched directly, they would otherwise wait for the slots their parents occupy.
+ * Cancelling the returned future cancels the invoke, if it is still queued it is skipped when its turn comes.
+ */
+public class PriorityServiceRunner implements ServiceRunner {
+
+	public static final String PROPERTY_PRIORITY = "priority";
+	
+	public enum Priority {
+		HIGH,
+		NORMAL,
+		LOW
+	}
+	
+	private static Logger logger = LoggerFactory.getLogger(PriorityServiceRunner.class);
+	private static Lane [] lanes = new Lane[Priority.values().length];
+	private static ThreadPoolExecutor scheduler;
+	// the low priority invokes in flight, a slot is held until the result is available
+	private static Semaphore slots;
+	private static Queue<LowPriorityInvoke> pending = new ConcurrentLinkedQueue<LowPriorityInvoke>();
+	// whether the current thread is a worker of the scheduler
+	private static ThreadLocal<Boolean> worker = new ThreadLocal<Boolean>();
+	// the invalid priorities we already warned about
+	private static Set<String> invalid = ConcurrentHashMap.newKeySet();
+	
+	static {
+		for (Priority priority : Priority.values()) {
+			lanes[priority.ordinal()] = new Lane();
+		}
+		int workers = Integer.parseInt(System.getProperty("vm.executor.priority.workers", "" + Runtime.getRuntime().availableProcessors()));
+		scheduler = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), ExecutorThreads.newDaemonFactory("vm-priority"));
+		scheduler.allowCoreThreadTimeOut(true);
+		slots = new Semaphore(workers);
+	}
+	
+	// the priority can be set as a priority or by name, an invoke without a (valid) priority is normal
+	public static Priority getPriority(Map<String, ?> properties) {
+		Object value = properties == null ? null : properties.get(PROPERTY_PRIORITY);
+		if (value instanceof Priority) {
+			return (Priority) value;
+		}
+		String priority = ExecutorProperties.getString(properties, PROPERTY_PRIORITY, null);
+		if (priority != null) {
+			for (Priority candidate : Priority.values()) {
+				if (candidate.name().equalsIgnoreCase(priority)) {
+					return candidate;
+				}
+			}
+			if (invalid.add(priority)) {
+				logger.warn("Unknown priority '" + priority + "', using " + Priority.NORMAL);
+			}
+		}
+		return Priority.NORMAL;
+	}
+	
+	public static Lane getLane(Priority priority) {
+		return lanes[priority.ordinal()];
+	}
+	
+	private ServiceRunner runner;
+	private Priority priority;
+	
+	public PriorityServiceRunner(ServiceRunner runner, Priority priority) {
+		this.runner = runner;
+		this.priority = priority == null ? Priority.NORMAL : priority;
+	}
+	
+	@Override
+	public Future<ServiceResult> run(final Service service, final ExecutionContext context, final ComplexContent input, final ServiceRunnableObserver...observers) {
+		final Lane lane = getLane(priority);
+		lane.submitted.incrementAndGet();
+		if (priority != Priority.LOW || Boolean.TRUE.equals(worker.get())) {
+			return runner.run(service, context, input, observers);
+		}
+		LowPriorityInvoke invoke = new LowPriorityInvoke(lane, service, context, input, observers);
+		lane.queued.incrementAndGet();
+		pending.offer(invoke);
+		dispatch();
+		return invoke.future;
+	}
+	
+	// hand off queued invokes for as long as there are free slots
+	private static void dispatch() {
+		while (!pending.isEmpty() && slots.tryAcquire()) {
+			final LowPriorityInvoke invoke = pending.poll();
+			if (invoke == null) {
+				slots.release();
+			}
+			else {
+				try {
+					scheduler.execute(invoke);
+				}
+				catch (RuntimeException e) {
+					invoke.lane.queued.decrementAndGet();
+					invoke.future.completeExceptionally(e);
+					slots.release();
+				}
+			}
+		}
+	}
+	
+	private class LowPriorityInvoke implements Runnable {
+		private Lane lane;
+		private Service service;
+		private ExecutionContext context;
+		private ComplexContent input;
+		private ServiceRunnableObserver [] observers;
+		private long created = System.nanoTime();
+		private LowPriorityFuture future = new LowPriorityFuture();
+		
+		public LowPriorityInvoke(Lane lane, Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+			this.lane = lane;
+			this.service = service;
+			this.context = context;
+			this.input = input;
+			this.observers = observers;
+		}
+		
+		@Override
+		public void run() {
+			lane.queued.decrementAndGet();
+			lane.waited.addAndGet(System.nanoTime() - created);
+			// cancelled while it was queued
+			if (future.isDone()) {
+				release();
+				return;
+			}
+			worker.set(true);
+			try {
+				Future<ServiceResult> result = runner.run(service, context, input, observers);
+				if (result == null) {
+					release();
+					future.complete(null);
+				}
+				else {
+					// the slot is only released once the result is available, the deadline of the wrapped runner (if any) completes it as well
+					future.setRunning(ExecutorFutures.whenComplete(result, new BiConsumer<ServiceResult, Throwable>() {
+						@Override
+						public void accept(ServiceResult result, Throwable exception) {
+							release();
+							if (exception == null) {
+								future.complete(result);
+							}
+							else {
+								future.completeExceptionally(exception);
+							}
+						}
+					}));
+				}
+			}
+			catch (Exception e) {
+				release();
+				future.completeExceptionally(e);
+			}
+			finally {
+				worker.remove();
+			}
+		}
+		
+		private void release() {
+			slots.release();
+			dispatch();
+		}
+	}
+	
+	// cancelling the future cancels the invoke once it is dispatched
+	private static class LowPriorityFuture extends CompletableFuture<ServiceResult> {
+		private volatile Future<ServiceResult> running;
+		
+		private void setRunning(Future<ServiceResult> running) {
+			this.running = running;
+			// the caller cancelled while we were dispatching
+			if (isCancelled()) {
+				running.cancel(true);
+			}
+		}
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			Future<ServiceResult> running = this.running;
+			if (cancelled && running != null) {
+				running.cancel(mayInterruptIfRunning);
+			}
+			return cancelled;
+		}
+	}
+	
+	public static class Lane {
+		private AtomicInteger queued = new AtomicInteger();
+		private AtomicLong submitted = new AtomicLong(), waited = new AtomicLong();
+		
+		public int getQueued() {
+			return queued.get();
+		}
+		public long getSubmitted() {
+			return submitted.get();
+		}
+		// the average time spent in the queue in milliseconds
+		public double getAverageWait() {
+			long dispatched = submitted.get() - queued.get();
+			return dispatched <= 0 ? 0 : (waited.get() / 1000000d) / dispatched;
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.services.api.DefinedService;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Retries invokes that fail to run, waiting a random time (full jitter) up to an exponentially growing backoff between attempts.
+ * The first attempt is dispatched as usual, only when it fails is a retry scheduled so successful invokes are never run twice.
+ * By default only failures to hand the invoke off that are known to be safe to retry are retried: the connection was refused, the host is unknown or there is no route to it.
+ * Timeouts and rejections are not retried by default as the target may have received or even run the invoke.
+ * The exceptions can be set to a comma separated list of class names (subclasses and causes match as well).
+ * A result that contains an exception means the service did run, it is only retried if its exception (or a cause) is explicitly listed.
+ * Each attempt goes through the wrapped runner so a circuit breaker deadline applies per attempt: a hung attempt fails with a timeout that is reported to the caller.
+ * Cancelling the returned future cancels the attempt in flight and any pending retry.
+ * The scheduler only waits out the delay, the attempt itself is dispatched on the shared worker pool.
+ */
+public class RetryServiceRunner implements ServiceRunner {
+
+	public static final String PROPERTY_ATTEMPTS = "retryAttempts";
+	public static final String PROPERTY_BACKOFF = "retryBackoff";
+	public static final String PROPERTY_MAX_BACKOFF = "retryMaxBackoff";
+	public static final String PROPERTY_EXCEPTIONS = "retryOn";
+	
+	// the invoke never reached the target for these, they are found anywhere in the cause chain
+	private static final List<String> DEFAULT_EXCEPTIONS = Arrays.asList("java.net.ConnectException", "java.net.UnknownHostException", "java.net.NoRouteToHostException");
+	
+	private static Logger logger = LoggerFactory.getLogger(RetryServiceRunner.class);
+	private static Map<String, RetryStatistics> statistics = new ConcurrentHashMap<String, RetryStatistics>();
+	private static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(ExecutorThreads.newDaemonFactory("vm-retry-scheduler"));
+	
+	public static boolean isEnabled(Map<String, ?> properties) {
+		return ExecutorProperties.getInteger(properties, PROPERTY_ATTEMPTS, 0) > 0;
+	}
+	
+	// whether the exceptions to retry are configured rather than the defaults
+	public static boolean isExplicit(Map<String, ?> properties) {
+		return ExecutorProperties.getString(properties, PROPERTY_EXCEPTIONS, null) != null;
+	}
+	
+	public static RetryStatistics getStatistics(String target) {
+		return statistics.computeIfAbsent(target, new Function<String, RetryStatistics>() {
+			@Override
+			public RetryStatistics apply(String target) {
+				return new RetryStatistics();
+			}
+		});
+	}
+	
+	private String target;
+	private ServiceRunner runner;
+	private int attempts;
+	private long backoff, maxBackoff;
+	private List<String> exceptions;
+	private RetryStatistics retryStatistics;
+	
+	public RetryServiceRunner(String target, ServiceRunner runner, Map<String, ?> properties) {
+		this.target = target;
+		this.runner = runner;
+		this.attempts = ExecutorProperties.getInteger(properties, PROPERTY_ATTEMPTS, 0);
+		this.backoff = ExecutorProperties.getLong(properties, PROPERTY_BACKOFF, 100);
+		this.maxBackoff = ExecutorProperties.getLong(properties, PROPERTY_MAX_BACKOFF, 10000);
+		String exceptions = ExecutorProperties.getString(properties, PROPERTY_EXCEPTIONS, null);
+		if (exceptions != null) {
+			this.exceptions = new ArrayList<String>();
+			for (String exception : exceptions.split("[\\s]*,[\\s]*")) {
+				this.exceptions.add(exception.trim());
+			}
+		}
+		this.retryStatistics = getStatistics(target);
+	}
+	
+	@Override
+	public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+		RetryFuture future = new RetryFuture();
+		attempt(0, future, service, context, input, observers);
+		return future;
+	}
+	
+	private void attempt(final int attempt, final RetryFuture future, final Service service, final ExecutionContext context, final ComplexContent input, final ServiceRunnableObserver...observers) {
+		BiConsumer<ServiceResult, Throwable> listener = new BiConsumer<ServiceResult, Throwable>() {
+			@Override
+			public void accept(ServiceResult result, Throwable exception) {
+				if (exception == null && (result == null || result.getException() == null || !isRetryable(result.getException(), true))) {
+					if (attempt > 0) {
+						retryStatistics.recovered.incrementAndGet();
+					}
+					future.complete(result);
+				}
+				else if (exception != null && !isRetryable(exception, false)) {
+					future.completeExceptionally(exception);
+				}
+				else if (attempt >= attempts) {
+					retryStatistics.exhausted.incrementAndGet();
+					if (exception == null) {
+						future.complete(result);
+					}
+					else {
+						future.completeExceptionally(exception);
+					}
+				}
+				else {
+					retry(attempt + 1, exception == null ? result.getException() : exception, future, service, context, input, observers);
+				}
+			}
+		};
+		final Future<ServiceResult> result;
+		try {
+			result = runner.run(service, context, input, observers);
+		}
+		catch (Exception e) {
+			listener.accept(null, e);
+			return;
+		}
+		future.track(attempt, ExecutorFutures.whenComplete(result, listener));
+	}
+	
+	private void retry(final int attempt, Throwable exception, final RetryFuture future, final Service service, final ExecutionContext context, final ComplexContent input, final ServiceRunnableObserver...observers) {
+		retryStatistics.retries.incrementAndGet();
+		// full jitter: a random delay up to the exponential backoff
+		long ceiling = Math.min(maxBackoff, backoff * (1L << Math.min(30, attempt - 1)));
+		long delay = ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+		logger.warn("Retrying service" + (service instanceof DefinedService ? " '" + ((DefinedService) service).getId() + "'" : "") + " on target '" + target + "' in " + delay + "ms (attempt " + attempt + " of " + attempts + "): " + exception.getMessage());
+		future.track(attempt, scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!future.isDone()) {
+					// the scheduler only handles the delay, a slow dispatch should not hold up the other retries
+					try {
+						VirtualThreadServiceRunner.getExecutor().execute(new Runnable() {
+							@Override
+							public void run() {
+								if (!future.isDone()) {
+									attempt(attempt, future, service, context, input, observers);
+								}
+							}
+						});
+					}
+					catch (RejectedExecutionException e) {
+						future.completeExceptionally(e);
+					}
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS));
+	}
+	
+	private boolean isRetryable(Throwable exception, boolean explicit) {
+		// a result with an exception is only retried if the exceptions are configured
+		if (exceptions == null && explicit) {
+			return false;
+		}
+		List<String> exceptions = this.exceptions == null ? DEFAULT_EXCEPTIONS : this.exceptions;
+		while (exception != null) {
+			for (Class<?> type = exception.getClass(); type != null; type = type.getSuperclass()) {
+				if (exceptions.contains(type.getName()) || exceptions.contains(type.getSimpleName())) {
+					return true;
+				}
+			}
+			exception = exception.getCause() == exception ? null : exception.getCause();
+		}
+		return false;
+	}
+	
+	// cancelling the future cancels the attempt in flight or the scheduled retry
+	private static class RetryFuture extends CompletableFuture<ServiceResult> {
+		private Future<?> running;
+		private int attempt = -1;
+		
+		// an attempt that completes immediately can schedule the next one before it is tracked itself, the latest attempt wins
+		private void track(int attempt, Future<?> running) {
+			synchronized(this) {
+				if (attempt < this.attempt) {
+					return;
+				}
+				this.attempt = attempt;
+				this.running = running;
+			}
+			// the caller cancelled while we were dispatching
+			if (isCancelled()) {
+				running.cancel(true);
+			}
+		}
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			Future<?> running;
+			synchronized(this) {
+				running = this.running;
+			}
+			if (cancelled && running != null) {
+				running.cancel(mayInterruptIfRunning);
+			}
+			return cancelled;
+		}
+	}
+	
+	public static class RetryStatistics {
+		private AtomicLong retries = new AtomicLong(), recovered = new AtomicLong(), exhausted = new AtomicLong();
+		
+		// the amount of retries that were scheduled
+		public long getRetries() {
+			return retries.get();
+		}
+		// the amount of invokes that succeeded after at least one retry
+		public long getRecovered() {
+			return recovered.get();
+		}
+		// the amount of invokes that still failed after all the attempts
+		public long getExhausted() {
+			return exhausted.get();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * The load of a target as observed by this server: the amount of invokes that are in flight and the average (exponentially weighted) latency.
+ */
+public class TargetLoad {
+	
+	private static Map<String, TargetLoad> loads = new ConcurrentHashMap<String, TargetLoad>();
+	
+	public static TargetLoad getLoad(String target) {
+		return loads.computeIfAbsent(target, new Function<String, TargetLoad>() {
+			@Override
+			public TargetLoad apply(String target) {
+				return new TargetLoad();
+			}
+		});
+	}
+	
+	// how much weight a new latency measurement has in the average
+	private static final double WEIGHT = 0.2;
+	
+	private AtomicInteger inFlight = new AtomicInteger();
+	private volatile double latency;
+	
+	public void start() {
+		inFlight.incrementAndGet();
+	}
+	
+	public void stop(long nanos) {
+		inFlight.decrementAndGet();
+		double millis = nanos / 1000000d;
+		synchronized(this) {
+			latency = latency == 0 ? millis : (WEIGHT * millis) + ((1 - WEIGHT) * latency);
+		}
+	}
+	
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public double getLatency() {
+		return latency;
+	}
+	
+	// lower is better
+	public boolean isLessLoadedThan(TargetLoad other) {
+		return getInFlight() < other.getInFlight() || (getInFlight() == other.getInFlight() && getLatency() < other.getLatency());
+	}
+}
@@ -0,0 +1,116 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.services.api.DefinedService;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Runs each invoke on its own virtual thread so invokes that block on IO don't hold on to pooled threads.
+ * If the runtime does not support virtual threads, a cached pool of platform threads is used instead.
+ * The given runner is called on the virtual thread, it should run the service there (see {@link DirectServiceRunner}) rather than hand it off and park.
+ * The optional concurrency limit applies per invoked service.
+ */
+public class VirtualThreadServiceRunner implements ServiceRunner {
+
+	public static final String PROPERTY_CONCURRENCY = "virtualConcurrency";
+	
+	private static Logger logger = LoggerFactory.getLogger(VirtualThreadServiceRunner.class);
+	private static ExecutorService executor = newExecutor();
+	// the semaphores are shared by all invokes of the same service with the same limit
+	private static Map<String, Semaphore> semaphores = new ConcurrentHashMap<String, Semaphore>();
+	
+	private ServiceRunner runner;
+	private int concurrency;
+	
+	public VirtualThreadServiceRunner(ServiceRunner runner, Map<String, ?> properties) {
+		this.runner = runner;
+		this.concurrency = ExecutorProperties.getInteger(properties, PROPERTY_CONCURRENCY, 0);
+	}
+	
+	private Semaphore getSemaphore(Service service) {
+		if (concurrency <= 0) {
+			return null;
+		}
+		String id = service instanceof DefinedService ? ((DefinedService) service).getId() : "$anonymous";
+		return semaphores.computeIfAbsent(id + ":" + concurrency, new Function<String, Semaphore>() {
+			@Override
+			public Semaphore apply(String key) {
+				return new Semaphore(concurrency);
+			}
+		});
+	}
+	
+	private static ExecutorService newExecutor() {
+		if (!ExecutorThreads.isVirtualSupported()) {
+			logger.info("Virtual threads are not supported, falling back to platform threads");
+		}
+		return ExecutorThreads.newThreadPerTaskExecutor("vm-virtual");
+	}
+	
+	// the shared executor, also used by other runners that need a thread per task
+	static ExecutorService getExecutor() {
+		return executor;
+	}
+	
+	@Override
+	public Future<ServiceResult> run(final Service service, final ExecutionContext context, final ComplexContent input, final ServiceRunnableObserver...observers) {
+		final Semaphore semaphore = getSemaphore(service);
+		final CompletableFuture<ServiceResult> future = new CompletableFuture<ServiceResult>();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					// blocking a virtual thread on the limit is cheap
+					if (semaphore != null) {
+						semaphore.acquire();
+					}
+					try {
+						future.complete(runner.run(service, context, input, observers).get());
+					}
+					finally {
+						if (semaphore != null) {
+							semaphore.release();
+						}
+					}
+				}
+				catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+}
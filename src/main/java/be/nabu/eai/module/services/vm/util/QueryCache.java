@@ -0,0 +1,93 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.util;
+
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.nabu.libs.evaluator.QueryParser;
+import be.nabu.libs.evaluator.QueryPart;
+
+/**
+ * A bounded (least recently used) cache of parsed queries, the parsed parts are shared so they must not be modified.
+ * The size can be set with the system property "vm.query.cache".
+ */
+public class QueryCache {
+	
+	private static QueryCache instance = new QueryCache(Integer.parseInt(System.getProperty("vm.query.cache", "4096")));
+	
+	public static QueryCache getInstance() {
+		return instance;
+	}
+	
+	private Map<String, List<QueryPart>> cache;
+	private AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+	
+	public QueryCache(final int size) {
+		this.cache = new LinkedHashMap<String, List<QueryPart>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, List<QueryPart>> eldest) {
+				return size() > size;
+			}
+		};
+	}
+	
+	public List<QueryPart> parse(String query) throws ParseException {
+		List<QueryPart> parts;
+		synchronized(cache) {
+			parts = cache.get(query);
+		}
+		if (parts != null) {
+			hits.incrementAndGet();
+			return parts;
+		}
+		misses.incrementAndGet();
+		// parse outside of the lock, at worst two threads parse the same query
+		parts = Collections.unmodifiableList(QueryParser.getInstance().parse(query));
+		synchronized(cache) {
+			cache.put(query, parts);
+		}
+		return parts;
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	public int getSize() {
+		synchronized(cache) {
+			return cache.size();
+		}
+	}
+	
+	public void clear() {
+		synchronized(cache) {
+			cache.clear();
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.services.vm.step.Break;
+import be.nabu.libs.services.vm.step.Catch;
+import be.nabu.libs.services.vm.step.Drop;
+import be.nabu.libs.services.vm.step.Finally;
+import be.nabu.libs.services.vm.step.For;
+import be.nabu.libs.services.vm.step.Invoke;
+import be.nabu.libs.services.vm.step.Link;
+import be.nabu.libs.services.vm.step.Map;
+import be.nabu.libs.services.vm.step.Sequence;
+import be.nabu.libs.services.vm.step.Switch;
+import be.nabu.libs.services.vm.step.Throw;
+
+/**
+ * Keeps a binary snapshot of parsed sequences on the file system, keyed by the content hash of the service.xml it was parsed from.
+ * The snapshot also records the versions of the step classes (their serialVersionUID and the version of the library), a snapshot written by other step classes is stale.
+ * Stale snapshots are removed when they are read, snapshots of other versions and leftover temporary files are removed when the folder is first used.
+ * It is only enabled if the system property "vm.snapshot.folder" is set.
+ */
+public class SequenceSnapshots {
+	
+	private static final int MAGIC = 0x564d5353;
+	private static final int VERSION = 2;
+	
+	private static Logger logger = LoggerFactory.getLogger(SequenceSnapshots.class);
+	private static volatile File folder = System.getProperty("vm.snapshot.folder") == null ? null : new File(System.getProperty("vm.snapshot.folder"));
+	// we only allow our own step classes and the standard java classes they use
+	private static ObjectInputFilter filter = ObjectInputFilter.Config.createFilter("be.nabu.**;java.**;!*");
+	private static volatile boolean supported = true;
+	// the folder that was last cleaned up
+	private static volatile File cleaned;
+	private static String classes = getClassVersions();
+	
+	public static boolean isEnabled() {
+		return folder != null && supported;
+	}
+	
+	// the serialized form of the steps depends on the step classes, a new version of the library can change it without a change in the service.xml
+	private static String getClassVersions() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(Sequence.class.getPackage() == null ? null : Sequence.class.getPackage().getImplementationVersion());
+		for (Class<?> type : Arrays.asList(Break.class, Catch.class, Drop.class, Finally.class, For.class, Invoke.class, Link.class, Map.class, Sequence.class, Switch.class, Throw.class)) {
+			ObjectStreamClass streamClass = ObjectStreamClass.lookup(type);
+			builder.append(";").append(type.getName()).append("=").append(streamClass == null ? 0 : streamClass.getSerialVersionUID());
+		}
+		try {
+			return VMServiceUtils.hash(builder.toString().getBytes("UTF-8"));
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// changes the snapshot folder (null disables the snapshots), this also resets the detection of non-serializable steps and the cleanup
+	public static void setFolder(File folder) {
+		SequenceSnapshots.folder = folder;
+		supported = true;
+		cleaned = null;
+	}
+	
+	// returns null if there is no snapshot or it is stale
+	public static Sequence read(String id, String hash) {
+		if (!isEnabled()) {
+			return null;
+		}
+		clean();
+		File file = getFile(id);
+		if (!file.exists()) {
+			return null;
+		}
+		boolean stale = false;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (!isCurrent(input) || !hash.equals(input.readUTF())) {
+				stale = true;
+				return null;
+			}
+			ObjectInputStream objects = new ObjectInputStream(new InflaterInputStream(nonClosing(input)));
+			objects.setObjectInputFilter(filter);
+			return (Sequence) objects.readObject();
+		}
+		catch (Exception e) {
+			logger.warn("Could not read snapshot for service: " + id, e);
+			stale = true;
+			return null;
+		}
+		finally {
+			// the service will be parsed and a new snapshot written, but if that does not happen the old one should not linger
+			if (stale) {
+				file.delete();
+			}
+		}
+	}
+	
+	private static boolean isCurrent(DataInputStream input) throws IOException {
+		return input.readInt() == MAGIC && input.readInt() == VERSION && classes.equals(input.readUTF());
+	}
+	
+	// removes the temporary files of interrupted writes and the snapshots written by other versions, this is done once per folder
+	private static void clean() {
+		File folder = SequenceSnapshots.folder;
+		if (folder == null || folder.equals(cleaned)) {
+			return;
+		}
+		synchronized(SequenceSnapshots.class) {
+			if (folder.equals(cleaned)) {
+				return;
+			}
+			cleaned = folder;
+			File[] files = folder.listFiles();
+			if (files == null) {
+				return;
+			}
+			int removed = 0;
+			for (File file : files) {
+				boolean stale = file.getName().endsWith(".tmp");
+				if (!stale && file.getName().endsWith(".snapshot")) {
+					try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+						stale = !isCurrent(input);
+					}
+					catch (Exception e) {
+						stale = true;
+					}
+				}
+				if (stale && file.delete()) {
+					removed++;
+				}
+			}
+			if (removed > 0) {
+				logger.info("Removed " + removed + " stale sequence snapshots from: " + folder);
+			}
+		}
+	}
+	
+	public static void write(String id, String hash, Sequence sequence) {
+		if (!isEnabled()) {
+			return;
+		}
+		if (!(sequence instanceof Serializable)) {
+			logger.warn("The step classes are not serializable, disabling sequence snapshots");
+			supported = false;
+			return;
+		}
+		try {
+			if (!folder.exists()) {
+				folder.mkdirs();
+			}
+			clean();
+			File file = getFile(id);
+			// write to a temporary file first so concurrent readers never see half a snapshot
+			File temporary = File.createTempFile(id, ".tmp", folder);
+			try {
+				try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+					output.writeInt(MAGIC);
+					output.writeInt(VERSION);
+					output.writeUTF(classes);
+					output.writeUTF(hash);
+					DeflaterOutputStream deflater = new DeflaterOutputStream(nonClosing(output));
+					ObjectOutputStream objects = new ObjectOutputStream(deflater);
+					objects.writeObject(sequence);
+					objects.flush();
+					deflater.finish();
+				}
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally {
+				temporary.delete();
+			}
+		}
+		// the root is serializable but one of the nested steps (or a value they hold) is not, this will not change until the step classes do
+		catch (NotSerializableException e) {
+			logger.warn("The step class " + e.getMessage() + " is not serializable, disabling sequence snapshots");
+			supported = false;
+		}
+		catch (Exception e) {
+			logger.warn("Could not write snapshot for service: " + id, e);
+		}
+	}
+	
+	private static File getFile(String id) {
+		return new File(folder, id + ".snapshot");
+	}
+	
+	private static InputStream nonClosing(final InputStream input) {
+		return new java.io.FilterInputStream(input) {
+			@Override
+			public void close() throws IOException {
+				// the parent stream is closed by the caller
+			}
+		};
+	}
+	
+	private static OutputStream nonClosing(final OutputStream output) {
+		return new java.io.FilterOutputStream(output) {
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				out.write(bytes, offset, length);
+			}
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+	}
+}
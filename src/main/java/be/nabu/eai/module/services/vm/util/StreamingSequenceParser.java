@@ -0,0 +1,358 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.util;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import be.nabu.libs.services.vm.api.Step;
+import be.nabu.libs.services.vm.api.StepGroup;
+import be.nabu.libs.services.vm.step.Sequence;
+
+/**
+ * Parses a sequence in a single pass, creating the steps directly instead of going through an intermediate complex content.
+ * It supports both the prettified format (e.g. <map>) and the legacy format (e.g. <steps xsi:type="be.nabu.libs.services.vm.step.Map">).
+ * Anything it does not recognize results in a parse exception, the caller is expected to fall back to the generic binding in that case.
+ */
+public class StreamingSequenceParser {
+	
+	private static XMLInputFactory factory = newFactory();
+	private static Map<Class<?>, Map<String, PropertyDescriptor>> descriptors = new ConcurrentHashMap<Class<?>, Map<String, PropertyDescriptor>>();
+	
+	private Map<String, Class<? extends Step>> tags = new HashMap<String, Class<? extends Step>>();
+	private Map<String, Class<? extends Step>> types = new HashMap<String, Class<? extends Step>>();
+	
+	@SuppressWarnings("unchecked")
+	public StreamingSequenceParser(Map<String, String> customTagMapping) {
+		for (Map.Entry<String, String> entry : customTagMapping.entrySet()) {
+			try {
+				Class<? extends Step> clazz = (Class<? extends Step>) Class.forName(entry.getKey(), true, Step.class.getClassLoader());
+				tags.put(entry.getValue(), clazz);
+				types.put(entry.getKey(), clazz);
+			}
+			catch (ClassNotFoundException e) {
+				throw new IllegalArgumentException("Unknown step type: " + entry.getKey(), e);
+			}
+		}
+	}
+	
+	private static XMLInputFactory newFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// no DTD or external entities
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		return factory;
+	}
+
+	public Sequence parse(InputStream input) throws ParseException {
+		try {
+			return parse(input.readAllBytes());
+		}
+		catch (IOException e) {
+			ParseException exception = new ParseException(e.getMessage(), 0);
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+	
+	public Sequence parse(byte[] content) throws ParseException {
+		// the XML parser normalizes whitespace in attribute values and carriage returns in text, the formatter writes multiline values as is so they would silently change
+		int offset = findNormalizedWhitespace(content);
+		if (offset >= 0) {
+			throw new ParseException("Literal whitespace that would be normalized", offset);
+		}
+		try {
+			XMLStreamReader reader = factory.createXMLStreamReader(new ByteArrayInputStream(content), "UTF-8");
+			try {
+				while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+					// skip the prolog
+				}
+				if (!reader.isStartElement()) {
+					throw new ParseException("No root element found", 0);
+				}
+				Sequence sequence = new Sequence();
+				parse(reader, sequence);
+				return sequence;
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (XMLStreamException e) {
+			ParseException exception = new ParseException(e.getMessage(), e.getLocation() == null ? 0 : e.getLocation().getCharacterOffset());
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+	
+	// returns the offset of the first carriage return in the document or the first newline or tab in an attribute value, -1 if there are none
+	static int findNormalizedWhitespace(byte[] content) {
+		boolean inTag = false;
+		byte quote = 0;
+		for (int i = 0; i < content.length; i++) {
+			byte current = content[i];
+			if (current == '\r') {
+				return i;
+			}
+			else if (quote != 0) {
+				if (current == quote) {
+					quote = 0;
+				}
+				else if (current == '\n' || current == '\t') {
+					return i;
+				}
+			}
+			else if (inTag) {
+				if (current == '"' || current == '\'') {
+					quote = current;
+				}
+				else if (current == '>') {
+					inTag = false;
+				}
+			}
+			else if (current == '<') {
+				// comments, cdata and processing instructions can contain quotes that do not delimit anything
+				if (startsWith(content, i, "<!--")) {
+					i = skipTo(content, i + 4, "-->");
+				}
+				else if (startsWith(content, i, "<![CDATA[")) {
+					i = skipTo(content, i + 9, "]]>");
+				}
+				else if (startsWith(content, i, "<?")) {
+					i = skipTo(content, i + 2, "?>");
+				}
+				else {
+					inTag = true;
+				}
+			}
+		}
+		return -1;
+	}
+	
+	private static boolean startsWith(byte[] content, int offset, String prefix) {
+		if (offset + prefix.length() > content.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (content[offset + i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// returns the offset of the last character of the terminator (or the end of the content), carriage returns in between are still reported
+	private static int skipTo(byte[] content, int offset, String terminator) {
+		for (int i = offset; i < content.length; i++) {
+			if (content[i] == '\r') {
+				return i - 1;
+			}
+			else if (startsWith(content, i, terminator)) {
+				return i + terminator.length() - 1;
+			}
+		}
+		return content.length;
+	}
+	
+	// the reader is positioned on the start element of the step, when we return it is positioned on the matching end element
+	private void parse(XMLStreamReader reader, Step step) throws XMLStreamException, ParseException {
+		Map<String, PropertyDescriptor> properties = getDescriptors(step.getClass());
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String namespace = reader.getAttributeNamespace(i);
+			if (namespace != null && !namespace.isEmpty()) {
+				// the type is resolved by the parent
+				if (XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(namespace) && "type".equals(reader.getAttributeLocalName(i))) {
+					continue;
+				}
+				throw new ParseException("Unsupported attribute: " + reader.getAttributeName(i), reader.getLocation().getCharacterOffset());
+			}
+			set(step, properties.get(reader.getAttributeLocalName(i)), reader.getAttributeLocalName(i), reader.getAttributeValue(i), reader);
+		}
+		Map<String, List<Object>> lists = new LinkedHashMap<String, List<Object>>();
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			}
+			else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+				if (!reader.isWhiteSpace()) {
+					throw new ParseException("Unexpected text content in step: " + step.getClass().getName(), reader.getLocation().getCharacterOffset());
+				}
+			}
+			else if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = reader.getLocalName();
+				Class<? extends Step> childClass = tags.get(name);
+				if (childClass == null && "steps".equals(name)) {
+					String type = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type");
+					childClass = type == null ? null : types.get(type);
+					if (childClass == null) {
+						throw new ParseException("Unsupported step type: " + type, reader.getLocation().getCharacterOffset());
+					}
+				}
+				if (childClass != null) {
+					if (!(step instanceof StepGroup) || ((StepGroup) step).getChildren() == null) {
+						throw new ParseException("The step " + step.getClass().getName() + " can not have children", reader.getLocation().getCharacterOffset());
+					}
+					Step child = newStep(childClass, reader);
+					parse(reader, child);
+					((StepGroup) step).getChildren().add(child);
+					child.setParent((StepGroup) step);
+				}
+				// a simple value that is serialized as an element
+				else {
+					PropertyDescriptor descriptor = properties.get(name);
+					if (reader.getAttributeCount() > 0 || descriptor == null) {
+						throw new ParseException("Unsupported element: " + name, reader.getLocation().getCharacterOffset());
+					}
+					// fails if there are child elements
+					String text = reader.getElementText();
+					if (List.class.isAssignableFrom(descriptor.getPropertyType())) {
+						if (!lists.containsKey(name)) {
+							lists.put(name, new ArrayList<Object>());
+						}
+						lists.get(name).add(convert(getListType(descriptor), text, reader));
+					}
+					else {
+						set(step, descriptor, name, text, reader);
+					}
+				}
+			}
+		}
+		for (Map.Entry<String, List<Object>> list : lists.entrySet()) {
+			invoke(step, properties.get(list.getKey()), list.getValue(), reader);
+		}
+	}
+	
+	private Step newStep(Class<? extends Step> clazz, XMLStreamReader reader) throws ParseException {
+		try {
+			return clazz.getConstructor().newInstance();
+		}
+		catch (Exception e) {
+			ParseException exception = new ParseException("Can not create step: " + clazz.getName(), reader.getLocation().getCharacterOffset());
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+	
+	private void set(Step step, PropertyDescriptor descriptor, String name, String value, XMLStreamReader reader) throws ParseException {
+		if (descriptor == null) {
+			throw new ParseException("Unknown property '" + name + "' for step: " + step.getClass().getName(), reader.getLocation().getCharacterOffset());
+		}
+		invoke(step, descriptor, convert(descriptor.getPropertyType(), value, reader), reader);
+	}
+	
+	private void invoke(Step step, PropertyDescriptor descriptor, Object value, XMLStreamReader reader) throws ParseException {
+		if (descriptor.getWriteMethod() == null) {
+			throw new ParseException("Read-only property '" + descriptor.getName() + "' for step: " + step.getClass().getName(), reader.getLocation().getCharacterOffset());
+		}
+		try {
+			descriptor.getWriteMethod().invoke(step, value);
+		}
+		catch (Exception e) {
+			ParseException exception = new ParseException("Can not set property '" + descriptor.getName() + "' for step: " + step.getClass().getName(), reader.getLocation().getCharacterOffset());
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Object convert(Class<?> type, String value, XMLStreamReader reader) throws ParseException {
+		try {
+			if (type == null) {
+				throw new ParseException("Unsupported property type", reader.getLocation().getCharacterOffset());
+			}
+			else if (String.class.equals(type)) {
+				return value;
+			}
+			else if (boolean.class.equals(type) || Boolean.class.equals(type)) {
+				return Boolean.parseBoolean(value);
+			}
+			else if (int.class.equals(type) || Integer.class.equals(type)) {
+				return Integer.parseInt(value);
+			}
+			else if (long.class.equals(type) || Long.class.equals(type)) {
+				return Long.parseLong(value);
+			}
+			else if (double.class.equals(type) || Double.class.equals(type)) {
+				return Double.parseDouble(value);
+			}
+			else if (float.class.equals(type) || Float.class.equals(type)) {
+				return Float.parseFloat(value);
+			}
+			else if (type.isEnum()) {
+				return Enum.valueOf((Class<? extends Enum>) type, value);
+			}
+		}
+		catch (IllegalArgumentException e) {
+			ParseException exception = new ParseException("Invalid value: " + value, reader.getLocation().getCharacterOffset());
+			exception.initCause(e);
+			throw exception;
+		}
+		throw new ParseException("Unsupported property type: " + type.getName(), reader.getLocation().getCharacterOffset());
+	}
+	
+	private static Class<?> getListType(PropertyDescriptor descriptor) {
+		if (descriptor.getWriteMethod() != null) {
+			Type type = descriptor.getWriteMethod().getGenericParameterTypes()[0];
+			if (type instanceof ParameterizedType && ((ParameterizedType) type).getActualTypeArguments()[0] instanceof Class) {
+				return (Class<?>) ((ParameterizedType) type).getActualTypeArguments()[0];
+			}
+		}
+		return null;
+	}
+	
+	private static Map<String, PropertyDescriptor> getDescriptors(Class<?> clazz) throws ParseException {
+		Map<String, PropertyDescriptor> map = descriptors.get(clazz);
+		if (map == null) {
+			try {
+				map = new HashMap<String, PropertyDescriptor>();
+				for (PropertyDescriptor descriptor : Introspector.getBeanInfo(clazz).getPropertyDescriptors()) {
+					map.put(descriptor.getName(), descriptor);
+				}
+				descriptors.put(clazz, map);
+			}
+			catch (IntrospectionException e) {
+				ParseException exception = new ParseException("Can not introspect step: " + clazz.getName(), 0);
+				exception.initCause(e);
+				throw exception;
+			}
+		}
+		return map;
+	}
+}
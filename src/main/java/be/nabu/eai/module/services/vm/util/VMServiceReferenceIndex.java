@@ -0,0 +1,117 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.vm.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import be.nabu.eai.repository.api.Repository;
+
+/**
+ * Keeps track of what each VM service references (invoked services, invoke targets, interfaces and types) and, in reverse, which services reference a given artifact.
+ * The index is updated when services are loaded, saved or refactored.
+ */
+public class VMServiceReferenceIndex {
+	
+	private static VMServiceReferenceIndex instance = new VMServiceReferenceIndex();
+	
+	public static VMServiceReferenceIndex getInstance() {
+		return instance;
+	}
+	
+	private Map<String, Set<String>> references = new ConcurrentHashMap<String, Set<String>>();
+	private Map<String, Set<String>> dependents = new ConcurrentHashMap<String, Set<String>>();
+
+	public synchronized void update(String serviceId, Collection<String> serviceReferences) {
+		Set<String> newReferences = Collections.unmodifiableSet(new HashSet<String>(serviceReferences));
+		Set<String> oldReferences = references.put(serviceId, newReferences);
+		if (oldReferences != null) {
+			for (String reference : oldReferences) {
+				if (!newReferences.contains(reference)) {
+					removeDependent(reference, serviceId);
+				}
+			}
+		}
+		for (String reference : newReferences) {
+			if (oldReferences == null || !oldReferences.contains(reference)) {
+				Set<String> set = dependents.get(reference);
+				if (set == null) {
+					set = ConcurrentHashMap.newKeySet();
+					dependents.put(reference, set);
+				}
+				set.add(serviceId);
+			}
+		}
+	}
+	
+	public synchronized void remove(String serviceId) {
+		Set<String> oldReferences = references.remove(serviceId);
+		if (oldReferences != null) {
+			for (String reference : oldReferences) {
+				removeDependent(reference, serviceId);
+			}
+		}
+	}
+	
+	private void removeDependent(String reference, String serviceId) {
+		Set<String> set = dependents.get(reference);
+		if (set != null) {
+			set.remove(serviceId);
+			if (set.isEmpty()) {
+				dependents.remove(reference);
+			}
+		}
+	}
+	
+	public boolean isIndexed(String serviceId) {
+		return references.containsKey(serviceId);
+	}
+	
+	// the artifacts referenced by the given service
+	public Set<String> getReferences(String serviceId) {
+		Set<String> set = references.get(serviceId);
+		return set == null ? Collections.<String>emptySet() : set;
+	}
+	
+	// the services that reference the given artifact
+	public Set<String> getDependents(String artifactId) {
+		Set<String> set = dependents.get(artifactId);
+		return set == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(set);
+	}
+	
+	// there is no callback when a service is deleted, so dependents that no longer exist in the repository are pruned when they are looked up
+	public List<String> getDependents(Repository repository, String artifactId) {
+		List<String> result = new ArrayList<String>();
+		for (String serviceId : getDependents(artifactId)) {
+			if (repository.getEntry(serviceId) == null) {
+				remove(serviceId);
+			}
+			else {
+				result.add(serviceId);
+			}
+		}
+		return result;
+	}
+}
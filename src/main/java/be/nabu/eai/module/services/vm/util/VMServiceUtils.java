@@ -17,11 +17,19 @@
 
 package be.nabu.eai.module.services.vm.util;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import be.nabu.eai.repository.EAIResourceRepository;
 import be.nabu.eai.repository.api.Entry;
+import be.nabu.libs.artifacts.api.Artifact;
+import be.nabu.libs.property.api.Value;
 import be.nabu.libs.services.vm.api.Step;
 import be.nabu.libs.services.vm.api.StepGroup;
 import be.nabu.libs.services.vm.api.VMService;
@@ -29,9 +37,92 @@ import be.nabu.libs.services.vm.step.Invoke;
 import be.nabu.libs.services.vm.step.Link;
 import be.nabu.libs.services.vm.step.Map;
 import be.nabu.libs.services.vm.step.Sequence;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.DefinedType;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.api.Type;
 
 public class VMServiceUtils {
 	
+	public static String hash(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			StringBuilder builder = new StringBuilder();
+			for (byte single : digest) {
+				builder.append(String.format("%02x", single & 0xff));
+			}
+			return builder.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// a hash of everything that ends up in the serialized form of the type: the elements, their types and the properties, it is used to detect changes without formatting the type
+	// values that have no meaningful string representation usually differ between instances, which errs on the side of reporting a change
+	public static String fingerprint(ComplexType type) {
+		StringBuilder builder = new StringBuilder();
+		fingerprint(type, builder, Collections.newSetFromMap(new IdentityHashMap<Type, Boolean>()));
+		try {
+			return hash(builder.toString().getBytes("UTF-8"));
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static void fingerprint(Type type, StringBuilder builder, Set<Type> parents) {
+		if (type == null) {
+			builder.append("null");
+			return;
+		}
+		// defined types are saved as a reference
+		if (type instanceof DefinedType && ((DefinedType) type).getId() != null && !parents.isEmpty()) {
+			builder.append("@").append(((DefinedType) type).getId());
+			return;
+		}
+		if (!parents.add(type)) {
+			builder.append("@recursive");
+			return;
+		}
+		builder.append("{super:");
+		if (type.getSuperType() instanceof DefinedType) {
+			builder.append(((DefinedType) type.getSuperType()).getId());
+		}
+		fingerprint(type.getProperties(), builder);
+		if (type instanceof ComplexType) {
+			for (Element<?> child : (ComplexType) type) {
+				builder.append("[").append(child.getName());
+				fingerprint(child.getProperties(), builder);
+				fingerprint(child.getType(), builder, parents);
+				builder.append("]");
+			}
+		}
+		builder.append("}");
+		parents.remove(type);
+	}
+	
+	private static void fingerprint(Value<?>[] values, StringBuilder builder) {
+		if (values != null) {
+			for (Value<?> value : values) {
+				if (value != null && value.getProperty() != null) {
+					Object object = value.getValue();
+					builder.append("(").append(value.getProperty().getName()).append("=");
+					if (object instanceof DefinedType) {
+						builder.append(((DefinedType) object).getId());
+					}
+					else if (object instanceof Artifact) {
+						builder.append(((Artifact) object).getId());
+					}
+					else {
+						builder.append(object);
+					}
+					builder.append(")");
+				}
+			}
+		}
+	}
+	
 	public static void renumber(VMService service) {
 		Sequence root = service.getRoot();
 		renumber(root, 1);
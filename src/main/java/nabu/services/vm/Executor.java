@@ -0,0 +1,42 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package nabu.services.vm;
+
+import javax.jws.WebParam;
+import javax.jws.WebResult;
+import javax.jws.WebService;
+
+import be.nabu.eai.module.services.vm.executor.AsyncExecutions;
+import be.nabu.libs.services.api.ServiceException;
+
+// lets asynchronous executors report the result of an execution they were handed, the correlation id is the one passed to the submit
+@WebService
+public class Executor {
+	
+	// returns false if the execution is unknown, for example because it already timed out or was cancelled
+	@WebResult(name = "completed")
+	public boolean complete(@WebParam(name = "correlationId") String correlationId, @WebParam(name = "output") Object output) {
+		return AsyncExecutions.complete(correlationId, output);
+	}
+	
+	@WebResult(name = "completed")
+	public boolean fail(@WebParam(name = "correlationId") String correlationId, @WebParam(name = "code") String code, @WebParam(name = "message") String message) {
+		return AsyncExecutions.fail(correlationId, new ServiceException(code == null ? "EXECUTOR-ASYNC-FAILED" : code, message == null ? "The asynchronous execution failed" : message));
+	}
+}
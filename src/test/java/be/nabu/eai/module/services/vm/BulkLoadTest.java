@@ -0,0 +1,131 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import be.nabu.eai.repository.api.ResourceEntry;
+import be.nabu.libs.services.vm.api.VMService;
+import be.nabu.libs.validator.api.Validation;
+import be.nabu.libs.validator.api.ValidationMessage;
+import be.nabu.libs.validator.api.ValidationMessage.Severity;
+
+/**
+ * Checks that the parallel bulk load gives the same result as loading the entries one by one in order.
+ * The actual parsing is replaced so the loads finish in a random order.
+ */
+public class BulkLoadTest {
+
+	@Test
+	public void testParallelMatchesSequential() {
+		List<ResourceEntry> entries = new ArrayList<ResourceEntry>();
+		for (int i = 0; i < 50; i++) {
+			entries.add(newEntry("services.service" + i));
+		}
+		VMServiceManager manager = new ScrambledManager();
+		
+		List<Validation<?>> sequentialMessages = new ArrayList<Validation<?>>();
+		Map<String, VMService> sequential = new java.util.LinkedHashMap<String, VMService>();
+		for (ResourceEntry entry : entries) {
+			try {
+				sequential.put(entry.getId(), manager.load(entry, sequentialMessages));
+			}
+			catch (Exception e) {
+				sequentialMessages.add(new ValidationMessage(Severity.ERROR, "Could not load service '" + entry.getId() + "': " + e.getMessage()));
+			}
+		}
+		
+		List<Validation<?>> parallelMessages = new ArrayList<Validation<?>>();
+		Map<String, VMService> parallel = manager.load(entries, parallelMessages, 8);
+		
+		assertEquals(new ArrayList<String>(sequential.keySet()), new ArrayList<String>(parallel.keySet()));
+		for (String id : sequential.keySet()) {
+			assertEquals(id, parallel.get(id).getId());
+		}
+		assertEquals(toString(sequentialMessages), toString(parallelMessages));
+	}
+	
+	private static List<String> toString(List<Validation<?>> messages) {
+		List<String> result = new ArrayList<String>();
+		for (Validation<?> message : messages) {
+			result.add(message.getSeverity() + ": " + message.getMessage());
+		}
+		return result;
+	}
+	
+	private static ResourceEntry newEntry(final String id) {
+		return (ResourceEntry) Proxy.newProxyInstance(ResourceEntry.class.getClassLoader(), new Class<?>[] { ResourceEntry.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("getId".equals(method.getName())) {
+					return id;
+				}
+				else if ("toString".equals(method.getName())) {
+					return id;
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+	
+	private static VMService newService(final String id) {
+		return (VMService) Proxy.newProxyInstance(VMService.class.getClassLoader(), new Class<?>[] { VMService.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("getId".equals(method.getName())) {
+					return id;
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+	
+	// every service reports a message, every seventh one fails to load
+	private static class ScrambledManager extends VMServiceManager {
+		private Random random = new Random();
+		@Override
+		public VMService load(ResourceEntry entry, List<Validation<?>> messages) throws IOException, ParseException {
+			try {
+				Thread.sleep(random.nextInt(5));
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			int index = Integer.parseInt(entry.getId().substring("services.service".length()));
+			messages.add(new ValidationMessage(Severity.INFO, "Loading " + entry.getId()));
+			if (index % 7 == 0) {
+				throw new ParseException("Broken service " + entry.getId(), 0);
+			}
+			return newService(entry.getId());
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import be.nabu.libs.services.vm.step.Sequence;
+
+/**
+ * The parse and format bindings are kept per thread, these tests parse and format different sequences on the same thread to make sure nothing carries over.
+ */
+public class SequenceBindingReuseTest {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		for (boolean prettify : new boolean [] { false, true }) {
+			byte[] formatted = SequenceFixtures.format(SequenceFixtures.newSequence(false), prettify);
+			byte[] reformatted = SequenceFixtures.format(SequenceFixtures.parse(formatted), prettify);
+			assertArrayEquals(formatted, reformatted);
+		}
+	}
+	
+	@Test
+	public void testNoStateBetweenParses() throws Exception {
+		byte[] full = SequenceFixtures.format(SequenceFixtures.newSequence(false), true);
+		byte[] large = SequenceFixtures.format(SequenceFixtures.newLargeSequence(5, 10), true);
+		
+		byte[] first = SequenceFixtures.format(SequenceFixtures.parse(full), true);
+		Sequence other = SequenceFixtures.parse(large);
+		assertEquals(5, other.getChildren().size());
+		// a broken document must not leave the reused binding in a bad state either
+		try {
+			SequenceFixtures.parse(new String(full, "UTF-8").substring(0, full.length / 2).getBytes("UTF-8"));
+		}
+		catch (Exception e) {
+			// expected
+		}
+		byte[] second = SequenceFixtures.format(SequenceFixtures.parse(full), true);
+		assertArrayEquals(first, second);
+		assertArrayEquals(large, SequenceFixtures.format(SequenceFixtures.parse(large), true));
+	}
+	
+	@Test
+	public void testFormatsAreIndependent() throws Exception {
+		Sequence sequence = SequenceFixtures.newSequence(false);
+		byte[] legacy = SequenceFixtures.format(sequence, false);
+		byte[] pretty = SequenceFixtures.format(sequence, true);
+		// alternating between both format bindings on the same thread gives the same output every time
+		assertArrayEquals(legacy, SequenceFixtures.format(sequence, false));
+		assertArrayEquals(pretty, SequenceFixtures.format(sequence, true));
+		// both formats parse to the same steps
+		assertArrayEquals(pretty, SequenceFixtures.format(SequenceFixtures.parse(legacy), true));
+	}
+}
@@ -0,0 +1,121 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import be.nabu.libs.services.vm.api.Step;
+import be.nabu.libs.services.vm.api.StepGroup;
+import be.nabu.libs.services.vm.step.Break;
+import be.nabu.libs.services.vm.step.Catch;
+import be.nabu.libs.services.vm.step.Drop;
+import be.nabu.libs.services.vm.step.Finally;
+import be.nabu.libs.services.vm.step.For;
+import be.nabu.libs.services.vm.step.Invoke;
+import be.nabu.libs.services.vm.step.Link;
+import be.nabu.libs.services.vm.step.Map;
+import be.nabu.libs.services.vm.step.Sequence;
+import be.nabu.libs.services.vm.step.Switch;
+import be.nabu.libs.services.vm.step.Throw;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+
+/**
+ * Builds sequences for the tests and benchmarks, the full fixture uses every step type in the custom tag mapping.
+ */
+public class SequenceFixtures {
+	
+	/**
+	 * A sequence with every step type, if multiline is set the free text values contain newlines and tabs
+	 */
+	public static Sequence newSequence(boolean multiline) {
+		String newline = multiline ? "\n\t" : " ";
+		Sequence root = new Sequence();
+		root.setId("root");
+		
+		Map map = add(root, new Map(), "map", "Initialize" + newline + "the input");
+		Link link = add(map, new Link("=concat(" + newline + "\"a\"," + newline + "\"b\")", "output/value"), "link", null);
+		link.setMask(true);
+		add(map, new Drop(), "drop", null).setPath("input/unused");
+		Invoke invoke = add(map, new Invoke(), "invoke", "Call" + newline + "the service");
+		invoke.setServiceId("my.services.doSomething");
+		invoke.setTarget("my.executor?priority=low");
+		add(invoke, new Link("input/value", "value"), "invokeInput", null);
+		
+		For loop = add(root, new For(), "for", "Loop over" + newline + "the items");
+		loop.setQuery("input/items[" + newline + "value != null]");
+		loop.setVariable("item");
+		loop.setInto("output/items");
+		add(loop, new Break(), "break", null).setCount(1);
+		
+		Switch choice = add(root, new Switch(), "switch", null);
+		choice.setQuery("input/type");
+		add(choice, new Sequence(), "case1", "first").setLabel("\"first\"");
+		add(choice, new Sequence(), "case2", "second" + newline + "case").setLabel("input/type ==" + newline + "\"second\"");
+		
+		Sequence guarded = add(root, new Sequence(), "guarded", null);
+		Throw failure = add(guarded, new Throw(), "throw", null);
+		failure.setCode("MY-CODE");
+		failure.setMessage("Something" + newline + "went wrong");
+		Catch handler = add(root, new Catch(), "catch", "Handle" + newline + "errors");
+		handler.setVariable("exception");
+		handler.setCodes(new ArrayList<String>(Arrays.asList("MY-CODE", "OTHER-CODE")));
+		add(root, new Finally(), "finally", null);
+		return root;
+	}
+	
+	/**
+	 * A sequence with the given amount of maps that each have the given amount of links, sized to resemble large generated services
+	 */
+	public static Sequence newLargeSequence(int maps, int linksPerMap) {
+		Sequence root = new Sequence();
+		root.setId("root");
+		for (int i = 0; i < maps; i++) {
+			Map map = add(root, new Map(), "map" + i, "Map " + i);
+			for (int j = 0; j < linksPerMap; j++) {
+				add(map, new Link("input/record" + i + "/field" + j, "output/record" + i + "/field" + j), "link" + i + "_" + j, null);
+			}
+		}
+		return root;
+	}
+	
+	public static byte[] format(Sequence sequence, boolean prettify) throws IOException {
+		ByteBuffer buffer = IOUtils.newByteBuffer();
+		VMServiceManager.formatSequence(buffer, sequence, prettify);
+		return IOUtils.toBytes(buffer);
+	}
+	
+	public static Sequence parse(byte[] content) throws IOException, ParseException {
+		return VMServiceManager.parseSequence(IOUtils.wrap(content, true));
+	}
+	
+	private static <T extends Step> T add(StepGroup parent, T step, String id, String comment) {
+		step.setId(id);
+		if (comment != null) {
+			step.setComment(comment);
+		}
+		parent.getChildren().add(step);
+		step.setParent(parent);
+		return step;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import be.nabu.libs.services.vm.api.Step;
+import be.nabu.libs.services.vm.api.StepGroup;
+import be.nabu.libs.services.vm.step.Invoke;
+import be.nabu.libs.services.vm.step.Sequence;
+
+/**
+ * The target of an invoke can carry a selection (e.g. :$any) and a query (e.g. ?priority=low), only the runner itself is a reference.
+ */
+public class VMServiceManagerReferencesTest {
+
+	@Test
+	public void testTargetQueryIsNotAReference() {
+		List<String> references = VMServiceManager.getReferencesForStep(SequenceFixtures.newSequence(false));
+		assertTrue(references.contains("my.services.doSomething"));
+		assertTrue(references.contains("my.executor"));
+		assertFalse(references.contains("my.executor?priority=low"));
+	}
+	
+	@Test
+	public void testTargetSelection() {
+		Sequence sequence = new Sequence();
+		sequence.getChildren().add(newInvoke("my.runner:$any?priority=high"));
+		sequence.getChildren().add(newInvoke("$all"));
+		sequence.getChildren().add(newInvoke("=input/target"));
+		List<String> references = VMServiceManager.getReferencesForStep(sequence);
+		assertEquals(2, references.size());
+		assertTrue(references.contains("my.runner"));
+	}
+	
+	@Test
+	public void testUpdateTargetWithQuery() {
+		Sequence sequence = SequenceFixtures.newSequence(false);
+		VMServiceManager.updateReferences(sequence, "my.executor", "other.executor");
+		assertEquals("other.executor?priority=low", findInvoke(sequence).getTarget());
+		// a runner whose id merely starts with the same characters is left alone
+		VMServiceManager.updateReferences(sequence, "other", "renamed");
+		assertEquals("other.executor?priority=low", findInvoke(sequence).getTarget());
+	}
+	
+	private static Invoke newInvoke(String target) {
+		Invoke invoke = new Invoke();
+		invoke.setServiceId("my.services.doSomething");
+		invoke.setTarget(target);
+		return invoke;
+	}
+	
+	private static Invoke findInvoke(StepGroup group) {
+		for (Step step : group.getChildren()) {
+			if (step instanceof Invoke) {
+				return (Invoke) step;
+			}
+			else if (step instanceof StepGroup) {
+				Invoke invoke = findInvoke((StepGroup) step);
+				if (invoke != null) {
+					return invoke;
+				}
+			}
+		}
+		return null;
+	}
+}
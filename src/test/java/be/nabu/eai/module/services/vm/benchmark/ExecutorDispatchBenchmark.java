@@ -0,0 +1,140 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.eai.module.services.vm.RepositoryExecutorProvider;
+import be.nabu.eai.module.services.vm.executor.BoundedServiceRunner;
+import be.nabu.eai.module.services.vm.executor.CircuitBreakerServiceRunner;
+import be.nabu.eai.module.services.vm.executor.RetryServiceRunner;
+import be.nabu.eai.repository.api.Repository;
+import be.nabu.libs.artifacts.api.Artifact;
+import be.nabu.libs.services.api.ServiceRunner;
+
+/**
+ * Measures the cost of getting the runner for an invoke target, as the virtual machine does on every invoke.
+ * The repository is a stub that knows a single runner artifact "my.runner", so the numbers only contain the overhead of the provider itself.
+ * The "uncached" variant runs with the runner cache disabled and builds the runner and its decorators for every invoke.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=ExecutorDispatchBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class ExecutorDispatchBenchmark {
+	
+	@Param({ "local", "runner", "decorated" })
+	private String scenario;
+	
+	private RepositoryExecutorProvider provider;
+	private String target;
+	private Map<String, Object> properties;
+	
+	@Setup
+	public void setup() {
+		final ServiceRunner local = newRunner(null);
+		final ServiceRunner remote = newRunner("my.runner");
+		Repository repository = (Repository) Proxy.newProxyInstance(Repository.class.getClassLoader(), new Class<?>[] { Repository.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("getServiceRunner".equals(method.getName())) {
+					return local;
+				}
+				else if ("resolve".equals(method.getName())) {
+					return "my.runner".equals(args[0]) ? remote : null;
+				}
+				else if ("hashCode".equals(method.getName())) {
+					return System.identityHashCode(proxy);
+				}
+				else if ("equals".equals(method.getName())) {
+					return proxy == args[0];
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+		provider = new RepositoryExecutorProvider(repository);
+		properties = new HashMap<String, Object>();
+		if ("local".equals(scenario)) {
+			target = null;
+		}
+		else {
+			target = "my.runner";
+			if ("decorated".equals(scenario)) {
+				properties.put(BoundedServiceRunner.PROPERTY_CONCURRENCY, 10);
+				properties.put(CircuitBreakerServiceRunner.PROPERTY_FAILURES, 5);
+				properties.put(RetryServiceRunner.PROPERTY_ATTEMPTS, 3);
+			}
+		}
+	}
+	
+	@Benchmark
+	@Fork(1)
+	public ServiceRunner cached() {
+		return provider.getRunner(target, properties);
+	}
+	
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-Dvm.executor.runners.size=0")
+	public ServiceRunner uncached() {
+		return provider.getRunner(target, properties);
+	}
+	
+	// a runner that is also an artifact, the way runners are found in the repository
+	private static ServiceRunner newRunner(final String id) {
+		return (ServiceRunner) Proxy.newProxyInstance(ServiceRunner.class.getClassLoader(), new Class<?>[] { ServiceRunner.class, Artifact.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("getId".equals(method.getName())) {
+					return id;
+				}
+				else if ("run".equals(method.getName())) {
+					return CompletableFuture.completedFuture(null);
+				}
+				else if ("hashCode".equals(method.getName())) {
+					return System.identityHashCode(proxy);
+				}
+				else if ("equals".equals(method.getName())) {
+					return proxy == args[0];
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+}
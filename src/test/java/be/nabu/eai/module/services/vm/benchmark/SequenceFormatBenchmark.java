@@ -0,0 +1,115 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.benchmark;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.eai.module.services.vm.SequenceFixtures;
+import be.nabu.eai.module.services.vm.VMServiceManager;
+import be.nabu.libs.services.vm.step.Sequence;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.binding.xml.AttributeFilter;
+import be.nabu.libs.types.binding.xml.XMLBinding;
+import be.nabu.libs.types.java.BeanInstance;
+import be.nabu.libs.types.java.BeanResolver;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+
+/**
+ * Formats a large generated sequence (the default is 50 maps of 100 links) with the precomputed bindings and filter.
+ * The "fresh" variant builds the binding and evaluates the default values per attribute like the formatter did before.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=SequenceFormatBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SequenceFormatBenchmark {
+	
+	@Param({ "100" })
+	private int linksPerMap;
+	
+	@Param({ "50", "200" })
+	private int maps;
+	
+	private Sequence sequence;
+	
+	@Setup
+	public void setup() {
+		sequence = SequenceFixtures.newLargeSequence(maps, linksPerMap);
+	}
+	
+	@Benchmark
+	public byte[] precomputed() throws Exception {
+		return SequenceFixtures.format(sequence, true);
+	}
+	
+	@Benchmark
+	public byte[] fresh() throws Exception {
+		XMLBinding binding = new XMLBinding((ComplexType) BeanResolver.getInstance().resolve(Sequence.class), Charset.forName("UTF-8"));
+		binding.setMultilineInAttributes(true);
+		binding.setMultilineAttributes(true);
+		binding.setAllowXSI(false);
+		binding.setCustomTagMapping(VMServiceManager.getCustomTagMapping());
+		binding.setAttributeFilter(new AttributeFilter() {
+			@Override
+			public boolean accept(Object content, String attribute, String value) {
+				java.util.Map<String, String> map = java.util.Map.of(
+					"mask", "false",
+					"optional", "false",
+					"disabled", "false",
+					"recache", "false",
+					"asynchronous", "false",
+					"fixedValue", "false",
+					"whitelist", "false",
+					"temporaryMapping", "true",
+					"invocationOrder", "0"
+				);
+				Object defaultValue = map.get(attribute);
+				return !"lineNumber".equals(attribute) && (defaultValue == null || !defaultValue.equals(value));
+			}
+		});
+		binding.setSameLineAttributes(List.of("id"));
+		ByteBuffer buffer = IOUtils.newByteBuffer();
+		try {
+			binding.marshal(IOUtils.toOutputStream(buffer), new BeanInstance<Sequence>(sequence));
+		}
+		finally {
+			buffer.close();
+		}
+		return IOUtils.toBytes(buffer);
+	}
+}
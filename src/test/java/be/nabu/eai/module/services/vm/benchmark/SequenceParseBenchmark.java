@@ -0,0 +1,99 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.benchmark;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import be.nabu.eai.module.services.vm.SequenceFixtures;
+import be.nabu.eai.module.services.vm.VMServiceManager;
+import be.nabu.libs.services.vm.step.Sequence;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.binding.api.Window;
+import be.nabu.libs.types.binding.xml.XMLBinding;
+import be.nabu.libs.types.java.BeanResolver;
+import be.nabu.utils.io.IOUtils;
+
+/**
+ * Simulates the parse phase of a repository startup: every iteration parses the sequences of a number of services on a single loader thread.
+ * The "fresh" variant builds a new binding for every service like the parser did before the bindings were reused.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=SequenceParseBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SequenceParseBenchmark {
+	
+	@Param({ "100", "1000" })
+	private int services;
+	
+	private List<byte[]> documents;
+	
+	@Setup
+	public void setup() throws Exception {
+		documents = new ArrayList<byte[]>();
+		for (int i = 0; i < services; i++) {
+			// a mix of small and medium sized services
+			documents.add(SequenceFixtures.format(i % 10 == 0 ? SequenceFixtures.newLargeSequence(10, 20) : SequenceFixtures.newSequence(false), true));
+		}
+	}
+	
+	@Benchmark
+	public void reusedBinding(Blackhole blackhole) throws Exception {
+		for (byte[] document : documents) {
+			blackhole.consume(VMServiceManager.parseSequence(IOUtils.wrap(document, true)));
+		}
+	}
+	
+	@Benchmark
+	public void freshBinding(Blackhole blackhole) throws Exception {
+		for (byte[] document : documents) {
+			XMLBinding binding = new XMLBinding((ComplexType) BeanResolver.getInstance().resolve(Sequence.class), Charset.forName("UTF-8"));
+			binding.setCustomTagMapping(VMServiceManager.getCustomTagMapping());
+			binding.setTrimContent(false);
+			HashMap<String, String> renames = new HashMap<String, String>();
+			for (String tag : VMServiceManager.getCustomTagMapping().values()) {
+				renames.put(tag, "steps");
+			}
+			binding.setRenameTag(renames);
+			blackhole.consume(TypeUtils.getAsBean(binding.unmarshal(IOUtils.toInputStream(IOUtils.wrap(document, true)), new Window[0]), Sequence.class));
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.eai.module.services.vm.SequenceFixtures;
+import be.nabu.eai.module.services.vm.VMServiceManager;
+import be.nabu.eai.module.services.vm.util.StreamingSequenceParser;
+import be.nabu.libs.services.vm.step.Sequence;
+import be.nabu.utils.io.IOUtils;
+
+/**
+ * Compares the streaming parser with the (reused) binding on a large generated sequence, in both the prettified and the legacy format.
+ * The streaming side includes the scan for whitespace that would be normalized.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=StreamingParseBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StreamingParseBenchmark {
+	
+	@Param({ "true", "false" })
+	private boolean prettify;
+	
+	@Param({ "10", "50" })
+	private int maps;
+	
+	private byte[] content;
+	private StreamingSequenceParser parser;
+	
+	@Setup
+	public void setup() throws Exception {
+		content = SequenceFixtures.format(SequenceFixtures.newLargeSequence(maps, 50), prettify);
+		parser = new StreamingSequenceParser(VMServiceManager.getCustomTagMapping());
+	}
+	
+	@Benchmark
+	public Sequence binding() throws Exception {
+		return VMServiceManager.parseSequence(IOUtils.wrap(content, true));
+	}
+	
+	@Benchmark
+	public Sequence streaming() throws Exception {
+		return parser.parse(content);
+	}
+}
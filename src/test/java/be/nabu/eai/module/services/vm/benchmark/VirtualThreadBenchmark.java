@@ -0,0 +1,132 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.eai.module.services.vm.executor.VirtualThreadServiceRunner;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Measures the throughput of IO-bound invokes: each invoke blocks for a few milliseconds on the thread that runs it, the way a call to a remote system does.
+ * Every operation dispatches a burst of invokes and waits for all of them.
+ * The "virtual" variant runs them through the virtual thread runner, the "pooled" variant on a fixed pool of platform threads as the default executors do.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=VirtualThreadBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class VirtualThreadBenchmark {
+	
+	@Param({ "1000" })
+	private int invokes;
+	
+	@Param({ "5" })
+	private int blockMillis;
+	
+	@Param({ "64" })
+	private int poolSize;
+	
+	private ServiceRunner blocking, virtual;
+	private ExecutorService pool;
+	
+	@Setup
+	public void setup() {
+		// runs the "service" on the calling thread, the way the direct runner does
+		blocking = new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				try {
+					Thread.sleep(blockMillis);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return CompletableFuture.completedFuture(null);
+			}
+		};
+		virtual = new VirtualThreadServiceRunner(blocking, null);
+		pool = Executors.newFixedThreadPool(poolSize);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+	
+	@Benchmark
+	public int virtual() throws InterruptedException, ExecutionException {
+		List<Future<ServiceResult>> futures = new ArrayList<Future<ServiceResult>>();
+		for (int i = 0; i < invokes; i++) {
+			futures.add(virtual.run(null, null, null));
+		}
+		return await(futures);
+	}
+	
+	@Benchmark
+	public int pooled() throws InterruptedException, ExecutionException {
+		List<Future<ServiceResult>> futures = new ArrayList<Future<ServiceResult>>();
+		for (int i = 0; i < invokes; i++) {
+			futures.add(pool.submit(new Callable<ServiceResult>() {
+				@Override
+				public ServiceResult call() throws Exception {
+					return blocking.run(null, null, null).get();
+				}
+			}));
+		}
+		return await(futures);
+	}
+	
+	private static int await(List<Future<ServiceResult>> futures) throws InterruptedException, ExecutionException {
+		for (Future<ServiceResult> future : futures) {
+			future.get();
+		}
+		return futures.size();
+	}
+}
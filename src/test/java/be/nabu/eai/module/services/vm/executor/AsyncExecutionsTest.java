@@ -0,0 +1,79 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import be.nabu.libs.services.api.ServiceResult;
+
+public class AsyncExecutionsTest {
+
+	@Test
+	public void testCompletionCancelsTimeout() throws Exception {
+		int pending = AsyncExecutions.getPending();
+		int scheduled = AsyncExecutions.getScheduledTimeouts();
+		for (int i = 0; i < 100; i++) {
+			CompletableFuture<ServiceResult> future = new CompletableFuture<ServiceResult>();
+			String correlationId = AsyncExecutions.register(future, 3600000);
+			assertTrue(AsyncExecutions.complete(correlationId, (ServiceResult) null));
+			assertTrue(future.isDone());
+		}
+		assertEquals(pending, AsyncExecutions.getPending());
+		assertEquals(scheduled, AsyncExecutions.getScheduledTimeouts());
+	}
+	
+	@Test
+	public void testCancelUnregisters() throws Exception {
+		int pending = AsyncExecutions.getPending();
+		int scheduled = AsyncExecutions.getScheduledTimeouts();
+		CompletableFuture<ServiceResult> future = new CompletableFuture<ServiceResult>();
+		String correlationId = AsyncExecutions.register(future, 3600000);
+		assertEquals(pending + 1, AsyncExecutions.getPending());
+		future.cancel(true);
+		assertEquals(pending, AsyncExecutions.getPending());
+		assertEquals(scheduled, AsyncExecutions.getScheduledTimeouts());
+		// a late result is ignored
+		assertFalse(AsyncExecutions.complete(correlationId, (ServiceResult) null));
+	}
+	
+	@Test
+	public void testTimeout() throws Exception {
+		CompletableFuture<ServiceResult> future = new CompletableFuture<ServiceResult>();
+		String correlationId = AsyncExecutions.register(future, 10);
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("The execution should time out");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertFalse(AsyncExecutions.complete(correlationId, (ServiceResult) null));
+	}
+}
@@ -0,0 +1,113 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+public class BoundedServiceRunnerTest {
+
+	@Test
+	public void testShedReturnsException() throws Exception {
+		BoundedServiceRunner runner = new BoundedServiceRunner("test.shed", newRunner(false), newProperties(1, "shed"));
+		Future<ServiceResult> running = runner.run(null, null, null);
+		ServiceResult shed = runner.run(null, null, null).get();
+		assertNotNull(shed);
+		assertEquals("EXECUTOR-SHED", shed.getException().getCode());
+		assertEquals(1, BoundedServiceRunner.getLimit("test.shed").getShed());
+		running.cancel(true);
+		assertEquals(0, BoundedServiceRunner.getLimit("test.shed").getInFlight());
+	}
+	
+	@Test
+	public void testReleasedWithoutGet() throws Exception {
+		BoundedServiceRunner runner = new BoundedServiceRunner("test.release", newRunner(true), newProperties(2, "fail"));
+		runner.run(null, null, null);
+		runner.run(null, null, null);
+		BoundedServiceRunner.TargetLimit limit = BoundedServiceRunner.getLimit("test.release");
+		long deadline = System.currentTimeMillis() + 5000;
+		while (limit.getInFlight() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(0, limit.getInFlight());
+	}
+	
+	@Test
+	public void testLowestConfigurationWins() throws Exception {
+		BoundedServiceRunner relaxed = new BoundedServiceRunner("test.configuration", newRunner(false), newProperties(5, "fail"));
+		BoundedServiceRunner strict = new BoundedServiceRunner("test.configuration", newRunner(false), newProperties(1, "fail"));
+		BoundedServiceRunner.TargetLimit limit = BoundedServiceRunner.getLimit("test.configuration");
+		assertEquals(1, limit.getMaxConcurrency());
+		// the relaxed call site shares the limit of the target
+		Future<ServiceResult> running = strict.run(null, null, null);
+		try {
+			relaxed.run(null, null, null);
+			fail("The target should be saturated");
+		}
+		catch (RejectedExecutionException e) {
+			// expected
+		}
+		running.cancel(true);
+		assertEquals(0, limit.getInFlight());
+		// a reset starts over with the next configuration
+		BoundedServiceRunner.reset("test.configuration");
+		new BoundedServiceRunner("test.configuration", newRunner(false), newProperties(5, "fail"));
+		assertNotSame(limit, BoundedServiceRunner.getLimit("test.configuration"));
+		assertEquals(5, BoundedServiceRunner.getLimit("test.configuration").getMaxConcurrency());
+	}
+	
+	private static Map<String, Object> newProperties(int concurrency, String policy) {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(BoundedServiceRunner.PROPERTY_CONCURRENCY, concurrency);
+		properties.put(BoundedServiceRunner.PROPERTY_POLICY, policy);
+		return properties;
+	}
+	
+	// returns futures that do not support callbacks, they complete in the background if requested
+	private static ServiceRunner newRunner(final boolean complete) {
+		return new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				FutureTask<ServiceResult> task = ExecutorFuturesTest.newTask();
+				if (complete) {
+					new Thread(task).start();
+				}
+				return task;
+			}
+		};
+	}
+}
@@ -0,0 +1,166 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import be.nabu.eai.module.services.vm.executor.CircuitBreakerServiceRunner.Circuit;
+import be.nabu.eai.module.services.vm.executor.CircuitBreakerServiceRunner.CircuitState;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * A probe that never reports back must not keep the circuit half open.
+ */
+public class CircuitBreakerServiceRunnerTest {
+
+	@Test
+	public void testOpenRejects() {
+		AtomicInteger invokes = new AtomicInteger();
+		CircuitBreakerServiceRunner runner = new CircuitBreakerServiceRunner("test.cancelled", newRunner(invokes), null, newProperties(3600000));
+		open(runner);
+		Circuit circuit = CircuitBreakerServiceRunner.getCircuits().get("test.cancelled");
+		assertEquals(CircuitState.OPEN, circuit.getState());
+		// no probe yet
+		try {
+			runner.run(null, null, null);
+			fail("The circuit should be open");
+		}
+		catch (RejectedExecutionException e) {
+			// expected
+		}
+		assertEquals(1, invokes.get());
+	}
+	
+	@Test
+	public void testCancelledProbe() {
+		AtomicInteger invokes = new AtomicInteger();
+		CircuitBreakerServiceRunner runner = new CircuitBreakerServiceRunner("test.probe", newRunner(invokes), null, newProperties(0));
+		open(runner);
+		Circuit circuit = CircuitBreakerServiceRunner.getCircuits().get("test.probe");
+		Future<ServiceResult> probe = runner.run(null, null, null);
+		assertEquals(CircuitState.HALF_OPEN, circuit.getState());
+		assertTrue(probe.cancel(true));
+		assertEquals(CircuitState.OPEN, circuit.getState());
+		assertFalse(circuit.isProbing());
+	}
+	
+	@Test
+	public void testProbeDeadline() throws Exception {
+		AtomicInteger invokes = new AtomicInteger();
+		CircuitBreakerServiceRunner runner = new CircuitBreakerServiceRunner("test.deadline", newRunner(invokes), null, newProperties(0));
+		open(runner);
+		// the probe is never retrieved
+		runner.run(null, null, null);
+		Thread.sleep(100);
+		// the deadline has passed, the next invoke is a new probe
+		runner.run(null, null, null);
+		assertEquals(3, invokes.get());
+		assertEquals(CircuitState.HALF_OPEN, CircuitBreakerServiceRunner.getCircuits().get("test.deadline").getState());
+	}
+	
+	@Test
+	public void testResultExceptionOpens() {
+		CircuitBreakerServiceRunner runner = new CircuitBreakerServiceRunner("test.result", new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				return CompletableFuture.<ServiceResult>completedFuture(new ExecutorServiceResult(new ServiceException("TEST-FAILED", "The executor failed")));
+			}
+		}, null, newProperties(3600000));
+		runner.run(null, null, null);
+		assertEquals(CircuitState.OPEN, CircuitBreakerServiceRunner.getCircuits().get("test.result").getState());
+	}
+	
+	@Test
+	public void testTimeoutCountsOnce() throws Exception {
+		Map<String, Object> properties = newProperties(3600000);
+		properties.put(CircuitBreakerServiceRunner.PROPERTY_FAILURES, 2);
+		CircuitBreakerServiceRunner runner = new CircuitBreakerServiceRunner("test.timeout", new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				// never completes
+				return new CompletableFuture<ServiceResult>();
+			}
+		}, null, properties);
+		Future<ServiceResult> future = runner.run(null, null, null);
+		// the deadline applies without a timed get
+		try {
+			future.get();
+			fail("The invoke should time out");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		Circuit circuit = CircuitBreakerServiceRunner.getCircuits().get("test.timeout");
+		assertEquals(1, circuit.getConsecutiveFailures());
+		assertEquals(CircuitState.CLOSED, circuit.getState());
+	}
+	
+	private static void open(CircuitBreakerServiceRunner runner) {
+		try {
+			runner.run(null, null, null);
+			fail("The first invoke should fail");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+	}
+	
+	private static Map<String, Object> newProperties(long openTime) {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(CircuitBreakerServiceRunner.PROPERTY_FAILURES, 1);
+		properties.put(CircuitBreakerServiceRunner.PROPERTY_OPEN_TIME, openTime);
+		properties.put(CircuitBreakerServiceRunner.PROPERTY_MIN_TIMEOUT, 10);
+		properties.put(CircuitBreakerServiceRunner.PROPERTY_MAX_TIMEOUT, 50);
+		return properties;
+	}
+	
+	// the first invoke fails to run, the others never complete
+	private static ServiceRunner newRunner(final AtomicInteger invokes) {
+		return new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				if (invokes.incrementAndGet() == 1) {
+					throw new IllegalStateException("The target is down");
+				}
+				return ExecutorFuturesTest.newTask();
+			}
+		};
+	}
+}
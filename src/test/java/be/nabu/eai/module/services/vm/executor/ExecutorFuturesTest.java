@@ -0,0 +1,105 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import org.junit.Test;
+
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Futures that don't support callbacks must still notify their listener once they are done, even if nobody retrieves the result.
+ */
+public class ExecutorFuturesTest {
+
+	@Test
+	public void testNotifiedWithoutGet() throws Exception {
+		final FutureTask<ServiceResult> task = newTask();
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicInteger notified = new AtomicInteger();
+		Future<ServiceResult> future = ExecutorFutures.whenComplete(task, new BiConsumer<ServiceResult, Throwable>() {
+			@Override
+			public void accept(ServiceResult result, Throwable exception) {
+				notified.incrementAndGet();
+				latch.countDown();
+			}
+		});
+		assertFalse(future.isDone());
+		new Thread(task).start();
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		// retrieving the result afterwards does not notify again
+		future.get();
+		assertEquals(1, notified.get());
+	}
+	
+	@Test
+	public void testCancelNotifies() throws Exception {
+		final AtomicReference<Throwable> notified = new AtomicReference<Throwable>();
+		Future<ServiceResult> future = ExecutorFutures.whenComplete(newTask(), new BiConsumer<ServiceResult, Throwable>() {
+			@Override
+			public void accept(ServiceResult result, Throwable exception) {
+				assertTrue(notified.compareAndSet(null, exception));
+			}
+		});
+		assertTrue(future.cancel(true));
+		assertTrue(notified.get() instanceof CancellationException);
+	}
+	
+	@Test
+	public void testCancelForwardsToCompletableFuture() throws Exception {
+		final AtomicReference<Throwable> notified = new AtomicReference<Throwable>();
+		CompletableFuture<ServiceResult> source = new CompletableFuture<ServiceResult>();
+		Future<ServiceResult> future = ExecutorFutures.whenComplete(source, new BiConsumer<ServiceResult, Throwable>() {
+			@Override
+			public void accept(ServiceResult result, Throwable exception) {
+				assertTrue(notified.compareAndSet(null, exception));
+			}
+		});
+		assertTrue(future.cancel(true));
+		assertTrue(source.isCancelled());
+		assertTrue(future.isCancelled());
+		assertTrue(notified.get() instanceof CancellationException);
+	}
+	
+	static FutureTask<ServiceResult> newTask() {
+		return new FutureTask<ServiceResult>(new Callable<ServiceResult>() {
+			@Override
+			public ServiceResult call() throws Exception {
+				Thread.sleep(20);
+				return new ExecutorServiceResult((ComplexContent) null);
+			}
+		});
+	}
+}
@@ -0,0 +1,158 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import be.nabu.eai.module.services.vm.executor.PriorityServiceRunner.Priority;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+public class PriorityServiceRunnerTest {
+
+	@Test
+	public void testGetPriority() {
+		assertEquals(Priority.NORMAL, PriorityServiceRunner.getPriority(null));
+		assertEquals(Priority.NORMAL, PriorityServiceRunner.getPriority(Collections.<String, Object>emptyMap()));
+		assertEquals(Priority.LOW, PriorityServiceRunner.getPriority(newProperties("low")));
+		assertEquals(Priority.HIGH, PriorityServiceRunner.getPriority(newProperties(Priority.HIGH)));
+		// an unknown priority is not an error
+		assertEquals(Priority.NORMAL, PriorityServiceRunner.getPriority(newProperties("urgent")));
+		assertEquals(Priority.NORMAL, PriorityServiceRunner.getPriority(newProperties("urgent")));
+	}
+	
+	@Test
+	public void testNestedLowPriority() throws Exception {
+		final AtomicReference<ServiceRunner> outer = new AtomicReference<ServiceRunner>();
+		final ThreadLocal<Integer> depth = new ThreadLocal<Integer>();
+		final AtomicInteger invokes = new AtomicInteger();
+		// every invoke does a nested low priority invoke and waits for it
+		outer.set(new PriorityServiceRunner(new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				invokes.incrementAndGet();
+				int current = depth.get() == null ? 0 : depth.get();
+				if (current < 2) {
+					depth.set(current + 1);
+					try {
+						outer.get().run(service, context, input, observers).get(10, TimeUnit.SECONDS);
+					}
+					catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+					finally {
+						depth.set(current);
+					}
+				}
+				return CompletableFuture.completedFuture(null);
+			}
+		}, Priority.LOW));
+		// more invokes than there are workers, if the nested invokes were queued they would wait for the workers their parents occupy
+		int amount = Runtime.getRuntime().availableProcessors() * 2;
+		List<Future<ServiceResult>> futures = new ArrayList<Future<ServiceResult>>();
+		for (int i = 0; i < amount; i++) {
+			futures.add(outer.get().run(null, null, null));
+		}
+		for (Future<ServiceResult> future : futures) {
+			future.get(10, TimeUnit.SECONDS);
+		}
+		assertEquals(amount * 3, invokes.get());
+	}
+	
+	@Test
+	public void testSlotHeldUntilResult() throws Exception {
+		final List<CompletableFuture<ServiceResult>> running = new CopyOnWriteArrayList<CompletableFuture<ServiceResult>>();
+		// the target runs asynchronously, the hand off returns immediately
+		PriorityServiceRunner runner = new PriorityServiceRunner(new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				CompletableFuture<ServiceResult> future = new CompletableFuture<ServiceResult>();
+				running.add(future);
+				return future;
+			}
+		}, Priority.LOW);
+		int slots = Runtime.getRuntime().availableProcessors();
+		List<Future<ServiceResult>> futures = new ArrayList<Future<ServiceResult>>();
+		for (int i = 0; i <= slots; i++) {
+			futures.add(runner.run(null, null, null));
+		}
+		Thread.sleep(100);
+		// one invoke waits for a slot
+		assertEquals(slots, running.size());
+		assertEquals(1, PriorityServiceRunner.getLane(Priority.LOW).getQueued());
+		running.get(0).complete(null);
+		for (int i = 1; i <= slots; i++) {
+			long started = System.currentTimeMillis();
+			while (running.size() <= i && System.currentTimeMillis() - started < 5000) {
+				Thread.sleep(1);
+			}
+			running.get(i).complete(null);
+		}
+		for (Future<ServiceResult> future : futures) {
+			future.get(10, TimeUnit.SECONDS);
+		}
+		assertEquals(slots + 1, running.size());
+	}
+	
+	@Test
+	public void testCancelForwards() throws Exception {
+		final CompletableFuture<ServiceResult> invoke = new CompletableFuture<ServiceResult>();
+		PriorityServiceRunner runner = new PriorityServiceRunner(new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				return invoke;
+			}
+		}, Priority.LOW);
+		Future<ServiceResult> future = runner.run(null, null, null);
+		long started = System.currentTimeMillis();
+		while (PriorityServiceRunner.getLane(Priority.LOW).getQueued() > 0 && System.currentTimeMillis() - started < 5000) {
+			Thread.sleep(1);
+		}
+		// give the worker time to register the result
+		Thread.sleep(50);
+		assertTrue(future.cancel(true));
+		assertTrue(invoke.isCancelled());
+	}
+	
+	private static Map<String, Object> newProperties(Object priority) {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PriorityServiceRunner.PROPERTY_PRIORITY, priority);
+		return properties;
+	}
+}
@@ -0,0 +1,189 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ConnectException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * By default only failures where the invoke never reached the target are retried.
+ */
+public class RetryServiceRunnerTest {
+
+	@Test
+	public void testDefaultRetriesConnectionFailure() throws Exception {
+		AtomicInteger invokes = new AtomicInteger();
+		RetryServiceRunner runner = new RetryServiceRunner("test.connect", newRunner(invokes, new RuntimeException(new ConnectException("Connection refused")), false), newProperties(null));
+		runner.run(null, null, null).get(5, TimeUnit.SECONDS);
+		assertEquals(2, invokes.get());
+	}
+	
+	@Test
+	public void testDefaultRetriesPolledFuture() throws Exception {
+		AtomicInteger invokes = new AtomicInteger();
+		RetryServiceRunner runner = new RetryServiceRunner("test.polled", newRunner(invokes, new ConnectException("Connection refused"), true), newProperties(null));
+		runner.run(null, null, null).get(5, TimeUnit.SECONDS);
+		assertEquals(2, invokes.get());
+	}
+	
+	@Test
+	public void testDefaultDoesNotRetryTimeout() throws Exception {
+		assertNotRetried(new RuntimeException(new TimeoutException()), null);
+		assertNotRetried(new RejectedExecutionException(), null);
+		assertNotRetried(new IllegalStateException(), null);
+	}
+	
+	@Test
+	public void testExplicitExceptions() throws Exception {
+		AtomicInteger invokes = new AtomicInteger();
+		RetryServiceRunner runner = new RetryServiceRunner("test.explicit", newRunner(invokes, new RuntimeException(new TimeoutException()), false), newProperties("TimeoutException"));
+		runner.run(null, null, null).get(5, TimeUnit.SECONDS);
+		assertEquals(2, invokes.get());
+		// the defaults no longer apply
+		assertNotRetried(new RuntimeException(new ConnectException()), "TimeoutException");
+	}
+	
+	@Test
+	public void testCancelForwardsToAttempt() throws Exception {
+		final CompletableFuture<ServiceResult> attempt = new CompletableFuture<ServiceResult>();
+		RetryServiceRunner runner = new RetryServiceRunner("test.cancel", new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				return attempt;
+			}
+		}, newProperties(null));
+		Future<ServiceResult> future = runner.run(null, null, null);
+		assertTrue(future.cancel(true));
+		assertTrue(attempt.isCancelled());
+	}
+	
+	@Test
+	public void testRetryRunsOffScheduler() throws Exception {
+		final AtomicInteger invokes = new AtomicInteger();
+		final List<String> threads = new CopyOnWriteArrayList<String>();
+		RetryServiceRunner runner = new RetryServiceRunner("test.worker", new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				if (invokes.incrementAndGet() == 1) {
+					throw new RuntimeException(new ConnectException("Connection refused"));
+				}
+				threads.add(Thread.currentThread().getName());
+				return CompletableFuture.completedFuture(null);
+			}
+		}, newProperties(null));
+		runner.run(null, null, null).get(5, TimeUnit.SECONDS);
+		assertEquals(1, threads.size());
+		assertFalse(threads.get(0).startsWith("vm-retry-scheduler"));
+	}
+	
+	@Test
+	public void testCircuitTimeoutReachesCaller() throws Exception {
+		Map<String, Object> properties = newProperties(null);
+		properties.put(CircuitBreakerServiceRunner.PROPERTY_FAILURES, 5);
+		properties.put(CircuitBreakerServiceRunner.PROPERTY_MIN_TIMEOUT, 10);
+		properties.put(CircuitBreakerServiceRunner.PROPERTY_MAX_TIMEOUT, 50);
+		// the target hangs
+		ServiceRunner hanging = new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				return new CompletableFuture<ServiceResult>();
+			}
+		};
+		RetryServiceRunner runner = new RetryServiceRunner("test.hanging", new CircuitBreakerServiceRunner("test.hanging", hanging, null, properties), properties);
+		try {
+			runner.run(null, null, null).get(5, TimeUnit.SECONDS);
+			fail("The invoke should time out");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+	}
+	
+	private static void assertNotRetried(Exception exception, String retryOn) throws Exception {
+		AtomicInteger invokes = new AtomicInteger();
+		RetryServiceRunner runner = new RetryServiceRunner("test.not-retried", newRunner(invokes, exception, false), newProperties(retryOn));
+		try {
+			runner.run(null, null, null).get(5, TimeUnit.SECONDS);
+			fail("The invoke should fail");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() == exception);
+		}
+		assertEquals(1, invokes.get());
+	}
+	
+	private static Map<String, Object> newProperties(String retryOn) {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(RetryServiceRunner.PROPERTY_ATTEMPTS, 3);
+		properties.put(RetryServiceRunner.PROPERTY_BACKOFF, 1);
+		properties.put(RetryServiceRunner.PROPERTY_EXCEPTIONS, retryOn);
+		return properties;
+	}
+	
+	// the first invoke fails with the given exception, either when dispatching or through a future that does not support callbacks
+	private static ServiceRunner newRunner(final AtomicInteger invokes, final Exception exception, final boolean polled) {
+		return new ServiceRunner() {
+			@Override
+			public Future<ServiceResult> run(Service service, ExecutionContext context, ComplexContent input, ServiceRunnableObserver...observers) {
+				if (invokes.incrementAndGet() > 1) {
+					return CompletableFuture.completedFuture(null);
+				}
+				else if (!polled) {
+					throw exception instanceof RuntimeException ? (RuntimeException) exception : new RuntimeException(exception);
+				}
+				FutureTask<ServiceResult> task = new FutureTask<ServiceResult>(new Callable<ServiceResult>() {
+					@Override
+					public ServiceResult call() throws Exception {
+						Thread.sleep(20);
+						throw exception;
+					}
+				});
+				new Thread(task).start();
+				return task;
+			}
+		};
+	}
+}
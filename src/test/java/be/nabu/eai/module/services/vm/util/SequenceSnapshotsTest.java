@@ -0,0 +1,161 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.nabu.eai.module.services.vm.SequenceFixtures;
+import be.nabu.eai.module.services.vm.VMServiceManager;
+import be.nabu.libs.services.vm.api.Step;
+import be.nabu.libs.services.vm.api.StepGroup;
+import be.nabu.libs.services.vm.step.Sequence;
+
+/**
+ * Writes and reads back snapshots of sequences that contain every step type, the result must format exactly like the original.
+ * If the step classes in use are not serializable the snapshots disable themselves, which fails the round-trip tests.
+ */
+public class SequenceSnapshotsTest {
+
+	private File folder;
+	
+	@Before
+	public void setUp() throws Exception {
+		folder = Files.createTempDirectory("vm-snapshots").toFile();
+		SequenceSnapshots.setFolder(folder);
+	}
+	
+	@After
+	public void tearDown() {
+		SequenceSnapshots.setFolder(null);
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		folder.delete();
+	}
+	
+	@Test
+	public void testFixtureCoversAllSteps() {
+		Set<String> types = new TreeSet<String>();
+		collect(SequenceFixtures.newSequence(true), types, new ArrayList<Step>());
+		assertEquals(new TreeSet<String>(VMServiceManager.getCustomTagMapping().keySet()), types);
+	}
+	
+	@Test
+	public void testRoundTrip() throws Exception {
+		for (boolean multiline : new boolean [] { false, true }) {
+			Sequence sequence = SequenceFixtures.newSequence(multiline);
+			Sequence copy = roundTrip("my.service" + multiline, sequence);
+			assertArrayEquals(SequenceFixtures.format(sequence, false), SequenceFixtures.format(copy, false));
+			assertArrayEquals(SequenceFixtures.format(sequence, true), SequenceFixtures.format(copy, true));
+			// every step must be attached to its (copied) parent
+			List<Step> steps = new ArrayList<Step>();
+			collect(copy, new TreeSet<String>(), steps);
+			for (Step step : steps) {
+				if (step != copy) {
+					assertNotNull(step.getParent());
+					assertNotNull(step.getParent().getChildren());
+					boolean found = false;
+					for (Step sibling : step.getParent().getChildren()) {
+						found |= sibling == step;
+					}
+					assertEquals(true, found);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testRoundTripPerStepType() throws Exception {
+		Sequence sequence = SequenceFixtures.newSequence(true);
+		// each top level step (and the steps it contains) separately
+		for (Step child : new ArrayList<Step>(sequence.getChildren())) {
+			Sequence single = new Sequence();
+			single.setId("single");
+			single.getChildren().add(child);
+			child.setParent(single);
+			Sequence copy = roundTrip("my.single." + child.getId(), single);
+			assertArrayEquals(SequenceFixtures.format(single, true), SequenceFixtures.format(copy, true));
+			assertSame(copy, copy.getChildren().get(0).getParent());
+		}
+	}
+	
+	@Test
+	public void testStaleSnapshot() throws Exception {
+		SequenceSnapshots.write("my.service", "hash1", SequenceFixtures.newSequence(false));
+		assertTrue("The step classes are not serializable", SequenceSnapshots.isEnabled());
+		assertNotNull(SequenceSnapshots.read("my.service", "hash1"));
+		assertNull(SequenceSnapshots.read("my.service", "hash2"));
+		// the stale snapshot is removed
+		assertFalse(new File(folder, "my.service.snapshot").exists());
+		assertNull(SequenceSnapshots.read("my.service", "hash1"));
+	}
+	
+	@Test
+	public void testCleanup() throws Exception {
+		SequenceSnapshots.write("my.current", "hash", SequenceFixtures.newSequence(false));
+		assertTrue("The step classes are not serializable", SequenceSnapshots.isEnabled());
+		// an interrupted write and a snapshot from another version
+		Files.write(new File(folder, "my.interrupted123.tmp").toPath(), new byte[] { 1, 2, 3 });
+		Files.write(new File(folder, "my.other.snapshot").toPath(), new byte[] { 0, 0, 0, 1 });
+		// the cleanup happens when the folder is first used
+		SequenceSnapshots.setFolder(folder);
+		assertNotNull(SequenceSnapshots.read("my.current", "hash"));
+		assertFalse(new File(folder, "my.interrupted123.tmp").exists());
+		assertFalse(new File(folder, "my.other.snapshot").exists());
+	}
+	
+	private static Sequence roundTrip(String id, Sequence sequence) {
+		SequenceSnapshots.write(id, "hash", sequence);
+		assertTrue("The step classes are not serializable", SequenceSnapshots.isEnabled());
+		Sequence copy = SequenceSnapshots.read(id, "hash");
+		assertNotNull(copy);
+		return copy;
+	}
+	
+	private static void collect(Step step, Set<String> types, List<Step> steps) {
+		types.add(step.getClass().getName());
+		steps.add(step);
+		if (step instanceof StepGroup && ((StepGroup) step).getChildren() != null) {
+			for (Step child : ((StepGroup) step).getChildren()) {
+				collect(child, types, steps);
+			}
+		}
+	}
+}
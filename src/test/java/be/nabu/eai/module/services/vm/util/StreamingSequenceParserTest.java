@@ -0,0 +1,125 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+
+import org.junit.Test;
+
+import be.nabu.eai.module.services.vm.SequenceFixtures;
+import be.nabu.eai.module.services.vm.VMServiceManager;
+import be.nabu.libs.services.vm.step.Sequence;
+
+/**
+ * The streaming parser must either produce exactly what the binding produces or refuse the document so the caller falls back to the binding.
+ * Every document is checked in both the legacy format (xsi:type) and the prettified format (custom tags).
+ */
+public class StreamingSequenceParserTest {
+
+	private StreamingSequenceParser parser = new StreamingSequenceParser(VMServiceManager.getCustomTagMapping());
+	
+	@Test
+	public void testSingleLineEquivalence() throws Exception {
+		for (boolean prettify : new boolean [] { false, true }) {
+			byte[] content = SequenceFixtures.format(SequenceFixtures.newSequence(false), prettify);
+			// without multiline values the full vocabulary must be supported, no fallback
+			assertEquivalent(content, parser.parse(content));
+		}
+	}
+	
+	@Test
+	public void testMultilineEquivalence() throws Exception {
+		for (boolean prettify : new boolean [] { false, true }) {
+			byte[] content = SequenceFixtures.format(SequenceFixtures.newSequence(true), prettify);
+			assertEquivalentOrRefused(content);
+		}
+	}
+	
+	@Test
+	public void testEveryTag() throws Exception {
+		Sequence full = SequenceFixtures.newSequence(true);
+		for (boolean prettify : new boolean [] { false, true }) {
+			// each top level step (and its children) on its own so a failure points to the tag
+			for (int i = 0; i < full.getChildren().size(); i++) {
+				Sequence single = SequenceFixtures.newSequence(true);
+				single.getChildren().retainAll(java.util.Arrays.asList(single.getChildren().get(i)));
+				assertEquivalentOrRefused(SequenceFixtures.format(single, prettify));
+			}
+		}
+	}
+	
+	@Test
+	public void testCarriageReturns() throws Exception {
+		Sequence sequence = SequenceFixtures.newSequence(false);
+		sequence.getChildren().get(0).setComment("first\r\nsecond");
+		for (boolean prettify : new boolean [] { false, true }) {
+			assertEquivalentOrRefused(SequenceFixtures.format(sequence, prettify));
+		}
+	}
+	
+	@Test
+	public void testFindNormalizedWhitespace() throws Exception {
+		assertEquals(-1, StreamingSequenceParser.findNormalizedWhitespace(bytes("<sequence\n\tid=\"a\"\n\tcomment=\"b c\">\n\t<map id='m'/>\n</sequence>")));
+		assertEquals(25, StreamingSequenceParser.findNormalizedWhitespace(bytes("<sequence id=\"a\" label=\"b\nc\"/>")));
+		assertEquals(20, StreamingSequenceParser.findNormalizedWhitespace(bytes("<sequence id='a' x='\tb'/>")));
+		// quotes and newlines in comments, cdata and processing instructions do not matter
+		assertEquals(-1, StreamingSequenceParser.findNormalizedWhitespace(bytes("<?xml version=\"1.0\"?>\n<!-- it's \"quoted\"\n -->\n<sequence id=\"a\"><![CDATA[ \" ' \n ]]></sequence>")));
+		assertEquals(5, StreamingSequenceParser.findNormalizedWhitespace(bytes("<!-- \r -->")));
+		assertEquals(10, StreamingSequenceParser.findNormalizedWhitespace(bytes("<sequence>\r\n</sequence>")));
+	}
+	
+	@Test
+	public void testUnsupportedDocumentIsRefused() throws Exception {
+		try {
+			parser.parse(bytes("<sequence id=\"a\"><unknown/></sequence>"));
+			fail("Unknown elements must be refused");
+		}
+		catch (ParseException e) {
+			// expected
+		}
+	}
+	
+	private void assertEquivalentOrRefused(byte[] content) throws Exception {
+		Sequence streamed;
+		try {
+			streamed = parser.parse(content);
+		}
+		catch (ParseException e) {
+			// the caller falls back to the binding
+			return;
+		}
+		assertEquivalent(content, streamed);
+	}
+	
+	private static void assertEquivalent(byte[] content, Sequence streamed) throws Exception {
+		Sequence bound = SequenceFixtures.parse(content);
+		for (boolean prettify : new boolean [] { false, true }) {
+			assertArrayEquals(SequenceFixtures.format(bound, prettify), SequenceFixtures.format(streamed, prettify));
+		}
+	}
+	
+	private static byte[] bytes(String content) throws Exception {
+		return content.getBytes("UTF-8");
+	}
+}
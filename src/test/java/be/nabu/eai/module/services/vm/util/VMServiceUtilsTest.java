@@ -0,0 +1,57 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.nabu.eai.module.services.vm.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import be.nabu.libs.property.ValueUtils;
+import be.nabu.libs.types.SimpleTypeWrapperFactory;
+import be.nabu.libs.types.base.SimpleElementImpl;
+import be.nabu.libs.types.properties.MinOccursProperty;
+import be.nabu.libs.types.structure.Structure;
+
+public class VMServiceUtilsTest {
+
+	@Test
+	public void testFingerprint() {
+		assertEquals(VMServiceUtils.fingerprint(newStructure()), VMServiceUtils.fingerprint(newStructure()));
+		
+		Structure added = newStructure();
+		added.add(new SimpleElementImpl<Integer>("amount", SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(Integer.class), added));
+		assertFalse(VMServiceUtils.fingerprint(newStructure()).equals(VMServiceUtils.fingerprint(added)));
+		
+		Structure optional = new Structure();
+		optional.setName("pipeline");
+		SimpleElementImpl<String> element = new SimpleElementImpl<String>("name", SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(String.class), optional);
+		element.setProperty(ValueUtils.wrap(MinOccursProperty.getInstance(), 0));
+		optional.add(element);
+		assertFalse(VMServiceUtils.fingerprint(newStructure()).equals(VMServiceUtils.fingerprint(optional)));
+	}
+	
+	private static Structure newStructure() {
+		Structure structure = new Structure();
+		structure.setName("pipeline");
+		structure.add(new SimpleElementImpl<String>("name", SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(String.class), structure));
+		return structure;
+	}
+}